@@ -0,0 +1,83 @@
+package com.mentalhealth.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mentalhealth.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a chat frame's payload as JSON and as CBOR, in frames per millisecond.
+ *
+ * <p>{@code jsonEncode} is what every broadcast pays today; {@code cborTranscode} is what
+ * {@link CborPayloadCodec} adds per subscriber that negotiated CBOR, and {@code cborEncode}
+ * encodes the message straight to CBOR for comparison. The decode benchmarks are the
+ * receiving side. Payload sizes for each content length are printed at setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CborPayloadCodecBenchmark {
+    @Param({"64", "1024"})
+    public int contentLength;
+    
+    private ObjectMapper jsonMapper;
+    private ObjectMapper cborMapper;
+    private CborPayloadCodec codec;
+    private ChatMessage message;
+    private byte[] json;
+    private byte[] cbor;
+    
+    @Setup
+    public void setUp() throws Exception {
+        jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+        cborMapper = Jackson2ObjectMapperBuilder.cbor().build();
+        codec = new CborPayloadCodec(new SimpleMeterRegistry());
+        message = ChatMessage.builder()
+                .id("65f1c0ffee0000000000f00d")
+                .sessionId("65f1c0ffee0000000000beef")
+                .seq(4242L)
+                .senderId("65f1c0ffee0000000000abcd")
+                .senderRole("USER")
+                .content("a".repeat(contentLength))
+                .timestamp(LocalDateTime.now())
+                .type(ChatMessage.MessageType.TEXT)
+                .build();
+        json = jsonMapper.writeValueAsBytes(message);
+        cbor = codec.toCbor(json);
+        System.out.printf("%ncontentLength=%d: JSON %d bytes, CBOR %d bytes (%.0f%%), CBOR encoded directly %d bytes%n",
+                contentLength, json.length, cbor.length, 100.0 * cbor.length / json.length,
+                cborMapper.writeValueAsBytes(message).length);
+    }
+    
+    @Benchmark
+    public byte[] jsonEncode() throws Exception {
+        return jsonMapper.writeValueAsBytes(message);
+    }
+    
+    @Benchmark
+    public byte[] cborTranscode() throws Exception {
+        return codec.toCbor(json);
+    }
+    
+    @Benchmark
+    public byte[] cborEncode() throws Exception {
+        return cborMapper.writeValueAsBytes(message);
+    }
+    
+    @Benchmark
+    public ChatMessage jsonDecode() throws Exception {
+        return jsonMapper.readValue(json, ChatMessage.class);
+    }
+    
+    @Benchmark
+    public ChatMessage cborDecode() throws Exception {
+        return cborMapper.readValue(cbor, ChatMessage.class);
+    }
+}
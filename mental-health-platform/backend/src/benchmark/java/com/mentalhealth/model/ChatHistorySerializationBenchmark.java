@@ -0,0 +1,90 @@
+package com.mentalhealth.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mentalhealth.dto.ChatHistoryResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding and decoding of a page of chat history, and of the session metadata that
+ * is now served without messages, using an ObjectMapper configured the way Spring MVC
+ * configures its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatHistorySerializationBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int messageCount;
+    
+    private ObjectMapper objectMapper;
+    private ChatSession session;
+    private ChatHistoryResponse history;
+    private byte[] json;
+    
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        session = sampleSession(messageCount);
+        history = sampleHistory(messageCount);
+        json = objectMapper.writeValueAsBytes(history);
+    }
+    
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(history);
+    }
+    
+    @Benchmark
+    public ChatHistoryResponse deserialize() throws Exception {
+        return objectMapper.readValue(json, ChatHistoryResponse.class);
+    }
+    
+    @Benchmark
+    public byte[] serializeSessionMetadata() throws Exception {
+        return objectMapper.writeValueAsBytes(session);
+    }
+    
+    static ChatSession sampleSession(int messageCount) {
+        return ChatSession.builder()
+                .id("65f1c0ffee0000000000beef")
+                .userId("65f1c0ffee0000000000abcd")
+                .counselorId("65f1c0ffee0000000000dcba")
+                .messageCount((long) messageCount)
+                .status(ChatSession.SessionStatus.ACTIVE)
+                .createdAt(LocalDateTime.now().minusDays(1))
+                .build();
+    }
+    
+    static ChatHistoryResponse sampleHistory(int messageCount) {
+        LocalDateTime start = LocalDateTime.now().minusDays(1);
+        List<ChatMessage> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            boolean fromUser = i % 2 == 0;
+            messages.add(ChatMessage.builder()
+                    .sessionId("65f1c0ffee0000000000beef")
+                    .seq(i + 1L)
+                    .senderId(fromUser ? "65f1c0ffee0000000000abcd" : "65f1c0ffee0000000000dcba")
+                    .senderRole(fromUser ? "USER" : "COUNSELOR")
+                    .content("Message " + i + ": thanks, that breathing exercise helped a little today.")
+                    .timestamp(start.plusSeconds(i * 30L))
+                    .isRead(true)
+                    .type(ChatMessage.MessageType.TEXT)
+                    .build());
+        }
+        
+        return ChatHistoryResponse.builder()
+                .messages(messages)
+                .hasMore(false)
+                .latestSeq((long) messageCount)
+                .build();
+    }
+}
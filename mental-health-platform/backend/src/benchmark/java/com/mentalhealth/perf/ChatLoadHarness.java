@@ -0,0 +1,416 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mentalhealth.MentalHealthApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Chat capacity under many concurrent STOMP clients, for comparing builds before a launch.
+ *
+ * <p>Boots one node on an in-memory Mongo, registers {@code bench.sessions} users with a chat
+ * session each, and opens {@code bench.connectionsPerSession} STOMP-over-WebSocket connections
+ * per session, all subscribed to the session's topic. It then sends chat messages through
+ * {@code /app/chat/{sessionId}/send}, round robin over the sessions, at each total rate in
+ * {@code bench.rates} (messages per second) for {@code bench.stageSeconds}, after one warmup
+ * stage. Each message carries its send time, so every delivery gives a fan-out latency from
+ * the sender's frame to the subscriber's receipt; deliveries still missing after a short drain
+ * count as lost.
+ *
+ * <p>Server, clients and the in-memory Mongo share this JVM, so CPU is split by thread: the
+ * WebSocket and HTTP clients and the sending thread count as clients, the Mongo stand-in's
+ * threads as Mongo, and every other thread as the server. Each is reported as cores used
+ * over the stage, next to the whole process (which also has GC and JIT). Server allocation
+ * is attributed the same way. Heap is the whole JVM: its peak during the stage and what is
+ * left after a full GC at its end.
+ *
+ * <p>The report is written as JSON to {@code bench.report}, with the same keys in the same
+ * order on every run; compare two with {@link LoadReportDiff}. {@code bench.appArgs} passes
+ * extra comma-separated arguments to the application, e.g.
+ * {@code --app.chat.persistence.mode=write-behind}.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.ChatLoadHarness -Dbench.sessions=1000 -Dbench.rates=200,500,1000
+ * </pre>
+ */
+public class ChatLoadHarness {
+    private static final int SESSIONS = Integer.getInteger("bench.sessions", 1000);
+    private static final int CONNECTIONS_PER_SESSION = Integer.getInteger("bench.connectionsPerSession", 2);
+    private static final List<Integer> RATES = Stream.of(System.getProperty("bench.rates", "200,500,1000").split(","))
+            .map(rate -> Integer.parseInt(rate.trim()))
+            .toList();
+    private static final int WARMUP_SECONDS = Integer.getInteger("bench.warmupSeconds", 5);
+    private static final int STAGE_SECONDS = Integer.getInteger("bench.stageSeconds", 20);
+    private static final int DRAIN_SECONDS = Integer.getInteger("bench.drainSeconds", 5);
+    private static final int CONNECT_CONCURRENCY = Integer.getInteger("bench.connectConcurrency", 64);
+    private static final String APP_ARGS = System.getProperty("bench.appArgs", "");
+    private static final String MONGO_URI = System.getProperty("bench.mongoUri");
+    private static final Path REPORT = Path.of(System.getProperty("bench.report", "target/chat-load-report.json"));
+    
+    private static final List<String> CLIENT_THREADS = List.of("WebSocketClient-", "HttpClient-");
+    private static final String MONGO_THREADS = "mongo-server-";
+    
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private static final Receiver receiver = new Receiver();
+    
+    private static final String SERVER = "server";
+    private static final String CLIENT = "client";
+    private static final String MONGO = "mongo";
+    // Sends the chat messages; a client thread, whatever it is called
+    private static volatile Thread sender;
+    
+    public static void main(String[] args) throws Exception {
+        LocalMongo localMongo = MONGO_URI == null ? LocalMongo.start() : null;
+        String mongoUri = localMongo != null ? localMongo.uri("bench_chat_load") : MONGO_URI;
+        try (ConfigurableApplicationContext node = startNode(mongoUri)) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("javaVersion", Runtime.version().toString());
+            report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+            report.put("maxHeapMB", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+            report.put("mongo", MONGO_URI != null ? "external" : "in-memory");
+            report.put("appArgs", APP_ARGS);
+            report.put("sessions", SESSIONS);
+            report.put("connections", SESSIONS * CONNECTIONS_PER_SESSION);
+            report.put("stageSeconds", STAGE_SECONDS);
+            run(node, report);
+            
+            Files.createDirectories(REPORT.toAbsolutePath().getParent());
+            mapper.writeValue(REPORT.toFile(), report);
+            System.out.println(mapper.writeValueAsString(report));
+        } finally {
+            if (localMongo != null) {
+                localMongo.close();
+            }
+        }
+        System.exit(0);
+    }
+    
+    private static ConfigurableApplicationContext startNode(String mongoUri) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.data.mongodb.uri=" + mongoUri,
+                "--app.security.bcrypt.strength=4",
+                "--logging.level.root=WARN",
+                "--logging.level.com.mentalhealth=WARN",
+                "--logging.level.org.springframework.security=WARN"));
+        Stream.of(APP_ARGS.split(",")).map(String::trim).filter(arg -> !arg.isEmpty()).forEach(arguments::add);
+        return new SpringApplicationBuilder(MentalHealthApplication.class).run(arguments.toArray(String[]::new));
+    }
+    
+    private static void run(ConfigurableApplicationContext node, Map<String, Object> report) throws Exception {
+        int port = Integer.parseInt(node.getEnvironment().getProperty("local.server.port"));
+        MeterRegistry meters = node.getBean(MeterRegistry.class);
+        HttpClient http = HttpClient.newHttpClient();
+        String baseUrl = "http://127.0.0.1:" + port;
+        
+        long setupStarted = System.nanoTime();
+        String suffix = Long.toString(System.nanoTime(), 36);
+        List<ChatSession> sessions = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            String username = "load" + suffix + "u" + i;
+            String token = mapper.readTree(post(http, baseUrl + "/api/auth/register", null, Map.of(
+                    "username", username,
+                    "email", username + "@example.com",
+                    "password", "benchmark-password"))).path("token").asText();
+            String sessionId = mapper.readTree(post(http, baseUrl + "/api/chat/session", token, Map.of()))
+                    .path("id").asText();
+            sessions.add(new ChatSession(sessionId, token));
+        }
+        
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        stompClient.setInboundMessageSizeLimit(64 * 1024);
+        Semaphore connecting = new Semaphore(CONNECT_CONCURRENCY);
+        List<CompletableFuture<StompSession>> pending = new ArrayList<>();
+        for (ChatSession session : sessions) {
+            for (int i = 0; i < CONNECTIONS_PER_SESSION; i++) {
+                connecting.acquire();
+                StompHeaders connect = new StompHeaders();
+                connect.add("Authorization", "Bearer " + session.token());
+                CompletableFuture<StompSession> connected = stompClient.connectAsync(
+                        "ws://127.0.0.1:" + port + "/ws/websocket", new WebSocketHttpHeaders(), connect,
+                        new StompSessionHandlerAdapter() {
+                        });
+                connected.whenComplete((stomp, ex) -> connecting.release());
+                pending.add(connected.thenApply(stomp -> {
+                    stomp.subscribe("/topic/chat/" + session.id(), receiver);
+                    session.connections().add(stomp);
+                    return stomp;
+                }));
+            }
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).get(5, TimeUnit.MINUTES);
+        // SUBSCRIBE is fire-and-forget; give the broker time to register every subscription
+        Thread.sleep(2000);
+        report.put("setupSeconds", (System.nanoTime() - setupStarted) / 1e9);
+        
+        runStage(-1, RATES.get(0), WARMUP_SECONDS, sessions, meters);
+        List<Map<String, Object>> stages = new ArrayList<>();
+        for (int stage = 0; stage < RATES.size(); stage++) {
+            stages.add(runStage(stage, RATES.get(stage), STAGE_SECONDS, sessions, meters));
+        }
+        report.put("stages", stages);
+        
+        sessions.forEach(session -> session.connections().forEach(StompSession::disconnect));
+        // Let the server handle the disconnects before the context closes under them
+        Thread.sleep(2000);
+        stompClient.stop();
+    }
+    
+    private static Map<String, Object> runStage(int stage, int ratePerSecond, int seconds,
+                                                List<ChatSession> sessions, MeterRegistry meters) throws Exception {
+        sender = Thread.currentThread();
+        receiver.reset(stage);
+        resetHeapPeaks();
+        Map<Long, ThreadUsage> threadsBefore = threadUsage();
+        long processCpuBefore = os.getProcessCpuTime();
+        double framesOutBefore = outboundMessageFrames(meters);
+        
+        long started = System.nanoTime();
+        long durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        long sent = 0;
+        long sendErrors = 0;
+        StompHeaders send = new StompHeaders();
+        send.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        while (true) {
+            long elapsed = System.nanoTime() - started;
+            if (elapsed >= durationNanos) {
+                break;
+            }
+            // Catch up to the schedule, so a slow send is followed by a burst rather than a lower rate
+            long due = elapsed * ratePerSecond / 1_000_000_000L;
+            for (; sent < due; sent++) {
+                ChatSession session = sessions.get((int) (sent % sessions.size()));
+                send.setDestination("/app/chat/" + session.id() + "/send");
+                String content = stage + ":" + System.nanoTime();
+                try {
+                    session.connections().get(0).send(send,
+                            ("{\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8));
+                } catch (RuntimeException ex) {
+                    sendErrors++;
+                }
+            }
+            Thread.sleep(1);
+        }
+        long sendSeconds = System.nanoTime() - started;
+        
+        long expected = (sent - sendErrors) * CONNECTIONS_PER_SESSION;
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while (receiver.delivered() < expected && System.nanoTime() < drainDeadline) {
+            Thread.sleep(50);
+        }
+        double wallSeconds = (System.nanoTime() - started) / 1e9;
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ratePerSecond", ratePerSecond);
+        result.put("achievedRatePerSecond", sent / (sendSeconds / 1e9));
+        result.put("sent", sent);
+        result.put("sendErrors", sendErrors);
+        result.put("expectedDeliveries", expected);
+        result.put("delivered", receiver.delivered());
+        result.put("lost", Math.max(0, expected - receiver.delivered()));
+        result.put("lossRatio", expected == 0 ? 0 : Math.max(0, expected - receiver.delivered()) / (double) expected);
+        result.put("serverFramesOut", outboundMessageFrames(meters) - framesOutBefore);
+        
+        long[] latencies = receiver.latencies();
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50Millis", percentileMillis(latencies, 0.50));
+        latency.put("p90Millis", percentileMillis(latencies, 0.90));
+        latency.put("p99Millis", percentileMillis(latencies, 0.99));
+        latency.put("p999Millis", percentileMillis(latencies, 0.999));
+        latency.put("maxMillis", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1_000_000.0);
+        result.put("fanOutLatency", latency);
+        
+        Map<String, ThreadUsage> used = usageSince(threadsBefore);
+        Map<String, Object> resources = new LinkedHashMap<>();
+        resources.put("serverCpuCores", used.get(SERVER).cpuNanos() / 1e9 / wallSeconds);
+        resources.put("clientCpuCores", used.get(CLIENT).cpuNanos() / 1e9 / wallSeconds);
+        resources.put("mongoCpuCores", used.get(MONGO).cpuNanos() / 1e9 / wallSeconds);
+        resources.put("processCpuCores", (os.getProcessCpuTime() - processCpuBefore) / 1e9 / wallSeconds);
+        resources.put("serverAllocatedMBPerSecond", used.get(SERVER).allocatedBytes() / (1024.0 * 1024.0) / wallSeconds);
+        resources.put("heapPeakMB", heapPeakBytes() / (1024.0 * 1024.0));
+        System.gc();
+        resources.put("heapAfterGcMB", heapUsedBytes() / (1024.0 * 1024.0));
+        result.put("resources", resources);
+        return result;
+    }
+    
+    private static Map<Long, ThreadUsage> threadUsage() {
+        Map<Long, ThreadUsage> usage = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            long id = thread.getId();
+            long cpu = threads.getThreadCpuTime(id);
+            long allocated = threads.getThreadAllocatedBytes(id);
+            if (cpu >= 0 && allocated >= 0) {
+                usage.put(id, new ThreadUsage(category(thread), cpu, allocated));
+            }
+        }
+        return usage;
+    }
+    
+    // Per category; a thread that ended during the stage is missed, but the server's pools keep their threads
+    private static Map<String, ThreadUsage> usageSince(Map<Long, ThreadUsage> before) {
+        Map<String, ThreadUsage> totals = new HashMap<>();
+        for (String category : List.of(SERVER, CLIENT, MONGO)) {
+            totals.put(category, new ThreadUsage(category, 0, 0));
+        }
+        threadUsage().forEach((id, now) -> {
+            ThreadUsage start = before.getOrDefault(id, new ThreadUsage(now.category(), 0, 0));
+            totals.merge(now.category(), new ThreadUsage(now.category(),
+                            now.cpuNanos() - start.cpuNanos(), now.allocatedBytes() - start.allocatedBytes()),
+                    (a, b) -> new ThreadUsage(a.category(), a.cpuNanos() + b.cpuNanos(),
+                            a.allocatedBytes() + b.allocatedBytes()));
+        });
+        return totals;
+    }
+    
+    private static String category(Thread thread) {
+        String name = thread.getName();
+        if (thread == sender || CLIENT_THREADS.stream().anyMatch(name::startsWith)) {
+            return CLIENT;
+        }
+        return name.startsWith(MONGO_THREADS) ? MONGO : SERVER;
+    }
+    
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+    
+    private static void resetHeapPeaks() {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+    
+    // Sum of the pools' peaks, so an upper bound: the pools need not peak at the same moment
+    private static long heapPeakBytes() {
+        return heapPools().stream().map(MemoryPoolMXBean::getPeakUsage).mapToLong(MemoryUsage::getUsed).sum();
+    }
+    
+    private static long heapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+    
+    private static double outboundMessageFrames(MeterRegistry meters) {
+        var counter = meters.find("websocket.messages").tags("direction", "outbound", "type", "message").counter();
+        return counter != null ? counter.count() : 0;
+    }
+    
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+    
+    private static String post(HttpClient client, String url, String token, Object body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+    
+    private record ThreadUsage(String category, long cpuNanos, long allocatedBytes) {
+    }
+    
+    private record ChatSession(String id, String token, List<StompSession> connections) {
+        
+        ChatSession(String id, String token) {
+            this(id, token, new CopyOnWriteArrayList<>());
+        }
+    }
+    
+    // Server and clients share this JVM, so System.nanoTime() in the message is comparable on receipt
+    private static final class Receiver implements StompFrameHandler {
+        private volatile String stagePrefix = "";
+        private final AtomicLong delivered = new AtomicLong();
+        private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        
+        void reset(int stage) {
+            stagePrefix = stage + ":";
+            delivered.set(0);
+            latencies.clear();
+        }
+        
+        long delivered() {
+            return delivered.get();
+        }
+        
+        long[] latencies() {
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+        
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+        
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            long now = System.nanoTime();
+            try {
+                String content = mapper.readTree((byte[]) payload).path("content").asText();
+                // Late deliveries from an earlier stage are not counted in this one
+                if (content.startsWith(stagePrefix)) {
+                    latencies.add(now - Long.parseLong(content.substring(stagePrefix.length())));
+                    delivered.incrementAndGet();
+                }
+            } catch (Exception ex) {
+                // Not a harness message, e.g. a session notice
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mentalhealth.MentalHealthApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end fan-out latency across several application nodes sharing one database.
+ *
+ * <p>Boots {@code bench.nodes} instances in this JVM with {@code bench.brokerMode}
+ * (default {@code bridge}), connects {@code bench.subscribersPerNode} STOMP clients to each
+ * node's {@code /topic/chat/{id}} and sends {@code bench.messages} chat messages through
+ * node 0. Each message carries its send time, so latency is measured from the sender's STOMP
+ * frame to every subscriber's receipt, separately for subscribers on the sending node and on
+ * the other nodes. The report is written as JSON to {@code bench.report}.
+ *
+ * <p>By default the nodes share an in-memory Mongo with change streams; set
+ * {@code bench.mongoUri} to use a real replica set, or {@code bench.brokerMode=relay} with
+ * {@code bench.relayHost}/{@code bench.relayPort} to measure an external STOMP broker instead.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.FanOutLatencyBenchmark -Dbench.nodes=3
+ * </pre>
+ */
+public class FanOutLatencyBenchmark {
+    private static final int NODES = Integer.getInteger("bench.nodes", 3);
+    private static final int SUBSCRIBERS_PER_NODE = Integer.getInteger("bench.subscribersPerNode", 10);
+    private static final int WARMUP_MESSAGES = Integer.getInteger("bench.warmupMessages", 50);
+    private static final int MESSAGES = Integer.getInteger("bench.messages", 500);
+    private static final int INTERVAL_MILLIS = Integer.getInteger("bench.intervalMillis", 10);
+    private static final String BROKER_MODE = System.getProperty("bench.brokerMode", "bridge");
+    private static final String RELAY_HOST = System.getProperty("bench.relayHost", "localhost");
+    private static final String RELAY_PORT = System.getProperty("bench.relayPort", "61613");
+    private static final String MONGO_URI = System.getProperty("bench.mongoUri");
+    private static final Path REPORT = Path.of(System.getProperty("bench.report", "target/fanout-report.json"));
+    
+    private static final String WARMUP_PREFIX = "warmup:";
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    
+    public static void main(String[] args) throws Exception {
+        LocalMongo localMongo = MONGO_URI == null ? LocalMongo.start() : null;
+        String mongoUri = localMongo != null ? localMongo.uri("bench_fanout") : MONGO_URI;
+        List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < NODES; i++) {
+                nodes.add(startNode(mongoUri));
+            }
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("javaVersion", Runtime.version().toString());
+            report.put("brokerMode", BROKER_MODE);
+            report.put("mongo", MONGO_URI != null ? "external" : "in-memory");
+            report.put("nodes", NODES);
+            report.put("subscribersPerNode", SUBSCRIBERS_PER_NODE);
+            report.put("messages", MESSAGES);
+            report.put("intervalMillis", INTERVAL_MILLIS);
+            report.put("results", run(nodes));
+            
+            Files.createDirectories(REPORT.toAbsolutePath().getParent());
+            mapper.writeValue(REPORT.toFile(), report);
+            System.out.println(mapper.writeValueAsString(report));
+        } finally {
+            nodes.forEach(ConfigurableApplicationContext::close);
+            if (localMongo != null) {
+                localMongo.close();
+            }
+        }
+        System.exit(0);
+    }
+    
+    private static ConfigurableApplicationContext startNode(String mongoUri) {
+        // Command line arguments, so they win over application.yml
+        return new SpringApplicationBuilder(MentalHealthApplication.class)
+                .run("--server.port=0",
+                        "--management.server.port=0",
+                        "--spring.data.mongodb.uri=" + mongoUri,
+                        "--app.websocket.broker.mode=" + BROKER_MODE,
+                        "--app.websocket.broker.relay.host=" + RELAY_HOST,
+                        "--app.websocket.broker.relay.port=" + RELAY_PORT,
+                        "--app.security.bcrypt.strength=4",
+                        "--logging.level.root=WARN",
+                        "--logging.level.com.mentalhealth=WARN",
+                        "--logging.level.org.springframework.security=WARN");
+    }
+    
+    private static Map<String, Object> run(List<ConfigurableApplicationContext> nodes) throws Exception {
+        List<Integer> ports = nodes.stream()
+                .map(node -> Integer.parseInt(node.getEnvironment().getProperty("local.server.port")))
+                .toList();
+        HttpClient http = HttpClient.newHttpClient();
+        String baseUrl = "http://127.0.0.1:" + ports.get(0);
+        
+        String suffix = Long.toString(System.nanoTime(), 36);
+        JsonNode auth = mapper.readTree(post(http, baseUrl + "/api/auth/register", null, Map.of(
+                "username", "fanout" + suffix,
+                "email", "fanout" + suffix + "@example.com",
+                "password", "benchmark-password")));
+        String token = auth.path("token").asText();
+        String sessionId = mapper.readTree(post(http, baseUrl + "/api/chat/session", token, Map.of()))
+                .path("id").asText();
+        String topic = "/topic/chat/" + sessionId;
+        
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        
+        List<Receiver> receivers = new ArrayList<>();
+        List<StompSession> sessions = new ArrayList<>();
+        for (int node = 0; node < ports.size(); node++) {
+            for (int i = 0; i < SUBSCRIBERS_PER_NODE; i++) {
+                Receiver receiver = new Receiver(node);
+                StompSession session = connect(stompClient, ports.get(node), token);
+                session.subscribe(topic, receiver);
+                receivers.add(receiver);
+                sessions.add(session);
+            }
+        }
+        StompSession sender = connect(stompClient, ports.get(0), token);
+        sessions.add(sender);
+        // SUBSCRIBE is fire-and-forget; give the brokers time to register every subscription
+        Thread.sleep(1000);
+        
+        StompHeaders send = new StompHeaders();
+        send.setDestination("/app/chat/" + sessionId + "/send");
+        send.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        for (int i = 0; i < WARMUP_MESSAGES + MESSAGES; i++) {
+            String content = (i < WARMUP_MESSAGES ? WARMUP_PREFIX : "") + System.nanoTime();
+            sender.send(send, mapper.writeValueAsBytes(Map.of("content", content)));
+            Thread.sleep(INTERVAL_MILLIS);
+        }
+        
+        long expected = (long) MESSAGES * receivers.size();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received(receivers) < expected && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        sessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+        
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("sendingNode", summarize(receivers.stream().filter(r -> r.node == 0).toList()));
+        results.put("otherNodes", summarize(receivers.stream().filter(r -> r.node != 0).toList()));
+        return results;
+    }
+    
+    private static StompSession connect(WebSocketStompClient client, int port, String token) throws Exception {
+        StompHeaders connect = new StompHeaders();
+        connect.add("Authorization", "Bearer " + token);
+        return client.connectAsync("ws://127.0.0.1:" + port + "/ws/websocket",
+                        new WebSocketHttpHeaders(), connect, new StompSessionHandlerAdapter() {
+                        })
+                .get(10, TimeUnit.SECONDS);
+    }
+    
+    private static long received(List<Receiver> receivers) {
+        return receivers.stream().mapToLong(r -> r.received.get()).sum();
+    }
+    
+    private static Map<String, Object> summarize(List<Receiver> receivers) {
+        long[] latencies = receivers.stream()
+                .flatMap(r -> r.latencies.stream())
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("subscribers", receivers.size());
+        result.put("expected", (long) MESSAGES * receivers.size());
+        result.put("delivered", latencies.length);
+        result.put("p50Millis", percentileMillis(latencies, 0.50));
+        result.put("p99Millis", percentileMillis(latencies, 0.99));
+        result.put("maxMillis", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1_000_000.0);
+        return result;
+    }
+    
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+    
+    private static String post(HttpClient client, String url, String token, Object body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+    
+    // Nodes share this JVM, so System.nanoTime() in the message is comparable on receipt
+    private static final class Receiver implements StompFrameHandler {
+        private final int node;
+        private final AtomicLong received = new AtomicLong();
+        private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        
+        Receiver(int node) {
+            this.node = node;
+        }
+        
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+        
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            long now = System.nanoTime();
+            try {
+                String content = mapper.readTree((byte[]) payload).path("content").asText();
+                if (!content.startsWith(WARMUP_PREFIX)) {
+                    latencies.add(now - Long.parseLong(content));
+                    received.incrementAndGet();
+                }
+            } catch (Exception ex) {
+                // Not a benchmark message
+            }
+        }
+    }
+}
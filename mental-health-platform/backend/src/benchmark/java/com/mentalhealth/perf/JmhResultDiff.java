@@ -0,0 +1,68 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, e.g. one saved from the previous commit and the
+ * fresh {@code target/jmh-result.json}, and prints the score change per benchmark.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.JmhResultDiff -Dexec.args="baseline.json target/jmh-result.json"
+ * </pre>
+ */
+public class JmhResultDiff {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: JmhResultDiff <baseline.json> <current.json>");
+            System.exit(2);
+        }
+        
+        Map<String, JsonNode> baseline = read(new File(args[0]));
+        Map<String, JsonNode> current = read(new File(args[1]));
+        
+        System.out.printf("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, JsonNode> entry : new TreeMap<>(current).entrySet()) {
+            JsonNode now = entry.getValue().path("primaryMetric");
+            JsonNode before = baseline.containsKey(entry.getKey())
+                    ? baseline.get(entry.getKey()).path("primaryMetric")
+                    : null;
+            
+            String unit = now.path("scoreUnit").asText();
+            double score = now.path("score").asDouble();
+            if (before == null) {
+                System.out.printf("%-90s %14s %14s %9s%n", entry.getKey(), "-", format(score, unit), "new");
+                continue;
+            }
+            
+            double previous = before.path("score").asDouble();
+            double change = previous == 0 ? 0 : (score - previous) / previous * 100;
+            System.out.printf("%-90s %14s %14s %+8.1f%%%n",
+                    entry.getKey(), format(previous, unit), format(score, unit), change);
+        }
+    }
+    
+    // Keyed by benchmark name plus parameters, so each @Param combination is compared separately
+    private static Map<String, JsonNode> read(File file) throws Exception {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+                    .replace("com.mentalhealth.", ""));
+            result.path("params").fields().forEachRemaining(param ->
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText()));
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+    
+    private static String format(double score, String unit) {
+        return String.format("%.2f %s", score, unit);
+    }
+}
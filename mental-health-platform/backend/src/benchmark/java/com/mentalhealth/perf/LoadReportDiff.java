@@ -0,0 +1,63 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two {@link ChatLoadHarness} reports, e.g. one saved from the previous build and
+ * the fresh {@code target/chat-load-report.json}, and prints every number side by side.
+ * Stages are matched by their rate.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.LoadReportDiff -Dexec.args="baseline.json target/chat-load-report.json"
+ * </pre>
+ */
+public class LoadReportDiff {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: LoadReportDiff <baseline.json> <current.json>");
+            System.exit(2);
+        }
+        
+        Map<String, Double> baseline = read(new File(args[0]));
+        Map<String, Double> current = read(new File(args[1]));
+        
+        System.out.printf("%-60s %14s %14s %9s%n", "Metric", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Double> entry : current.entrySet()) {
+            double value = entry.getValue();
+            Double previous = baseline.get(entry.getKey());
+            if (previous == null) {
+                System.out.printf("%-60s %14s %14.3f %9s%n", entry.getKey(), "-", value, "new");
+                continue;
+            }
+            double change = previous == 0 ? 0 : (value - previous) / previous * 100;
+            System.out.printf("%-60s %14.3f %14.3f %+8.1f%%%n", entry.getKey(), previous, value, change);
+        }
+    }
+    
+    // Numeric leaves by path, e.g. "stages[rate=500].fanOutLatency.p99Millis"
+    private static Map<String, Double> read(File file) throws Exception {
+        Map<String, Double> values = new LinkedHashMap<>();
+        flatten("", new ObjectMapper().readTree(file), values);
+        return values;
+    }
+    
+    private static void flatten(String path, JsonNode node, Map<String, Double> values) {
+        if (node.isNumber()) {
+            values.put(path, node.asDouble());
+        } else if (node.isObject()) {
+            node.fields().forEachRemaining(field ->
+                    flatten(path.isEmpty() ? field.getKey() : path + "." + field.getKey(), field.getValue(), values));
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                flatten(path + "[rate=" + element.path("ratePerSecond").asText() + "]", element, values);
+            }
+        }
+    }
+}
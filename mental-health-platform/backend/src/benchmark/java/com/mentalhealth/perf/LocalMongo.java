@@ -0,0 +1,36 @@
+package com.mentalhealth.perf;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * In-memory MongoDB wire protocol server on an ephemeral port, so end-to-end harnesses
+ * can boot the real application without a database install. The oplog is enabled so
+ * change streams (used by the broker bridge) work as on a replica set.
+ */
+public final class LocalMongo implements AutoCloseable {
+    private final MongoServer server;
+    private final String connectionString;
+    
+    private LocalMongo(MongoServer server, String connectionString) {
+        this.server = server;
+        this.connectionString = connectionString;
+    }
+    
+    public static LocalMongo start() {
+        MemoryBackend backend = new MemoryBackend();
+        backend.enableOplog();
+        MongoServer server = new MongoServer(backend);
+        String connectionString = server.bindAndGetConnectionString();
+        return new LocalMongo(server, connectionString);
+    }
+    
+    public String uri(String database) {
+        return connectionString + "/" + database;
+    }
+    
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+}
@@ -0,0 +1,334 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mentalhealth.MentalHealthApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Checks the slow-consumer policy against a client that stops reading.
+ *
+ * <p>Boots one node on an in-memory Mongo and connects two clients to the same chat session.
+ * One is a normal STOMP client; the other subscribes and then never reads its socket again,
+ * so the server's writes to it eventually block. The harness checks that:
+ * <ul>
+ *   <li>typing frames to the stalled client are dropped;</li>
+ *   <li>chat messages keep flowing, and the server then closes the stalled connection;</li>
+ *   <li>the other client still receives every chat message;</li>
+ *   <li>a burst of typing frames to a healthy client is coalesced rather than queued.</li>
+ * </ul>
+ * The report is written as JSON to {@code bench.report}. The process exits with status 1
+ * if any check fails.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.SlowConsumerHarness
+ * </pre>
+ */
+public class SlowConsumerHarness {
+    private static final int PAYLOAD_BYTES = Integer.getInteger("bench.payloadBytes", 2 * 1024);
+    private static final int INTERVAL_MILLIS = Integer.getInteger("bench.intervalMillis", 5);
+    private static final int MAX_MESSAGES = Integer.getInteger("bench.maxMessages", 20_000);
+    private static final int TYPING_BURST = Integer.getInteger("bench.typingBurst", 500);
+    private static final String SEND_TIME_LIMIT = System.getProperty("bench.sendTimeLimit", "2s");
+    private static final String SEND_BUFFER_LIMIT = System.getProperty("bench.sendBufferSizeLimit", "256KB");
+    private static final Path REPORT = Path.of(System.getProperty("bench.report", "target/slow-consumer-report.json"));
+    
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    
+    public static void main(String[] args) throws Exception {
+        boolean passed;
+        try (LocalMongo localMongo = LocalMongo.start();
+             ConfigurableApplicationContext node = startNode(localMongo.uri("bench_slow_consumer"))) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("javaVersion", Runtime.version().toString());
+            report.put("sendTimeLimit", SEND_TIME_LIMIT);
+            report.put("sendBufferSizeLimit", SEND_BUFFER_LIMIT);
+            report.put("payloadBytes", PAYLOAD_BYTES);
+            Map<String, Boolean> checks = run(node, report);
+            report.put("checks", checks);
+            passed = !checks.containsValue(false);
+            report.put("passed", passed);
+            
+            Files.createDirectories(REPORT.toAbsolutePath().getParent());
+            mapper.writeValue(REPORT.toFile(), report);
+            System.out.println(mapper.writeValueAsString(report));
+        }
+        System.exit(passed ? 0 : 1);
+    }
+    
+    private static ConfigurableApplicationContext startNode(String mongoUri) {
+        return new SpringApplicationBuilder(MentalHealthApplication.class)
+                .run("--server.port=0",
+                        "--management.server.port=0",
+                        "--spring.data.mongodb.uri=" + mongoUri,
+                        "--app.websocket.transport.send-time-limit=" + SEND_TIME_LIMIT,
+                        "--app.websocket.transport.send-buffer-size-limit=" + SEND_BUFFER_LIMIT,
+                        "--app.websocket.outbound.stall-threshold=100ms",
+                        "--app.security.bcrypt.strength=4",
+                        "--logging.level.root=WARN",
+                        "--logging.level.com.mentalhealth=INFO",
+                        "--logging.level.org.springframework.security=WARN");
+    }
+    
+    private static Map<String, Boolean> run(ConfigurableApplicationContext node, Map<String, Object> report)
+            throws Exception {
+        int port = Integer.parseInt(node.getEnvironment().getProperty("local.server.port"));
+        SimpMessagingTemplate template = node.getBean(SimpMessagingTemplate.class);
+        MeterRegistry meters = node.getBean(MeterRegistry.class);
+        
+        HttpClient http = HttpClient.newHttpClient();
+        String suffix = Long.toString(System.nanoTime(), 36);
+        JsonNode auth = mapper.readTree(post(http, "http://127.0.0.1:" + port + "/api/auth/register", null, Map.of(
+                "username", "slow" + suffix,
+                "email", "slow" + suffix + "@example.com",
+                "password", "benchmark-password")));
+        String token = auth.path("token").asText();
+        String sessionId = mapper.readTree(post(http, "http://127.0.0.1:" + port + "/api/chat/session", token, Map.of()))
+                .path("id").asText();
+        String chatTopic = "/topic/chat/" + sessionId;
+        String typingTopic = chatTopic + "/typing";
+        
+        // Room for the large frames; the default 8KB buffer would close the client instead
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(PAYLOAD_BYTES * 2);
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient(container));
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        
+        Counting healthyChat = new Counting();
+        Counting healthyTyping = new Counting();
+        StompSession healthy = connect(stompClient, port, token);
+        healthy.subscribe(chatTopic, healthyChat);
+        healthy.subscribe(typingTopic, healthyTyping);
+        
+        StalledClient slow = StalledClient.connect(port, token, chatTopic, typingTopic);
+        Thread.sleep(500);
+        
+        // 1. Fill the stalled client's socket until the server sees a write block
+        String payload = "x".repeat(PAYLOAD_BYTES);
+        int sent = 0;
+        long started = System.nanoTime();
+        while (sent < MAX_MESSAGES && gauge(meters, "websocket.sessions.stalled") == 0) {
+            template.convertAndSend(chatTopic, Map.of("seq", sent++, "content", payload));
+            // Paced so that the healthy client keeps up and the send buffer fills slower than the stall threshold
+            Thread.sleep(INTERVAL_MILLIS);
+        }
+        boolean stalled = gauge(meters, "websocket.sessions.stalled") > 0;
+        report.put("messagesUntilStalled", sent);
+        report.put("millisUntilStalled", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        
+        // 2. Typing frames to a stalled client are dropped rather than buffered
+        double droppedBefore = counter(meters, "websocket.outbound.frames", "result", "dropped");
+        for (int i = 0; i < 50; i++) {
+            template.convertAndSend(typingTopic, Map.of("typing", i));
+        }
+        Thread.sleep(200);
+        double dropped = counter(meters, "websocket.outbound.frames", "result", "dropped") - droppedBefore;
+        report.put("typingDroppedWhileStalled", dropped);
+        
+        // 3. Chat messages are not dropped; the stalled client is disconnected instead
+        long closeStarted = System.nanoTime();
+        while (sent < MAX_MESSAGES && counter(meters, "websocket.sessions.closed", "reason", "slow_consumer") == 0) {
+            template.convertAndSend(chatTopic, Map.of("seq", sent++, "content", payload));
+            Thread.sleep(INTERVAL_MILLIS);
+        }
+        double closed = counter(meters, "websocket.sessions.closed", "reason", "slow_consumer");
+        report.put("millisUntilDisconnected", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - closeStarted));
+        report.put("chatMessagesSent", sent);
+        int expected = sent;
+        waitFor(() -> healthyChat.received.get() >= expected, 10_000);
+        report.put("healthyChatReceived", healthyChat.received.get());
+        
+        // 4. A burst of typing frames to a healthy client is coalesced
+        double coalescedBefore = counter(meters, "websocket.outbound.frames", "result", "coalesced");
+        long typingBefore = healthyTyping.received.get();
+        for (int i = 0; i < TYPING_BURST; i++) {
+            template.convertAndSend(typingTopic, Map.of("typing", i));
+        }
+        Thread.sleep(1000);
+        double coalesced = counter(meters, "websocket.outbound.frames", "result", "coalesced") - coalescedBefore;
+        report.put("typingBurst", TYPING_BURST);
+        report.put("typingBurstDelivered", healthyTyping.received.get() - typingBefore);
+        report.put("typingBurstCoalesced", coalesced);
+        
+        slow.close();
+        healthy.disconnect();
+        stompClient.stop();
+        
+        Map<String, Boolean> checks = new LinkedHashMap<>();
+        checks.put("slowClientStalled", stalled);
+        checks.put("typingDroppedForStalledClient", dropped > 0);
+        checks.put("stalledClientDisconnected", closed > 0);
+        checks.put("healthyClientReceivedEveryChatMessage", healthyChat.received.get() == sent);
+        checks.put("typingBurstCoalescedOrDelivered",
+                healthyTyping.received.get() - typingBefore + coalesced == TYPING_BURST);
+        return checks;
+    }
+    
+    private static StompSession connect(WebSocketStompClient client, int port, String token) throws Exception {
+        StompHeaders connect = new StompHeaders();
+        connect.add("Authorization", "Bearer " + token);
+        return client.connectAsync("ws://127.0.0.1:" + port + "/ws/websocket",
+                        new WebSocketHttpHeaders(), connect, new StompSessionHandlerAdapter() {
+                        })
+                .get(10, TimeUnit.SECONDS);
+    }
+    
+    private static double gauge(MeterRegistry meters, String name) {
+        return meters.get(name).gauge().value();
+    }
+    
+    private static double counter(MeterRegistry meters, String name, String tag, String value) {
+        return meters.get(name).tag(tag, value).counter().count();
+    }
+    
+    private static void waitFor(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+    
+    private static String post(HttpClient client, String url, String token, Object body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+    
+    private static final class Counting implements StompFrameHandler {
+        private final AtomicLong received = new AtomicLong();
+        
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+        
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            received.incrementAndGet();
+        }
+    }
+    
+    /**
+     * A client that connects and subscribes, then never reads again: a plain socket with a
+     * small receive buffer, speaking just enough WebSocket and STOMP to get subscribed.
+     */
+    private static final class StalledClient implements AutoCloseable {
+        private final Socket socket;
+        
+        private StalledClient(Socket socket) {
+            this.socket = socket;
+        }
+        
+        static StalledClient connect(int port, String token, String... destinations) throws IOException {
+            Socket socket = new Socket();
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            
+            out.write(("GET /ws/websocket HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1:" + port + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(new byte[16]) + "\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            String response = readUntil(in, "\r\n\r\n");
+            if (!response.startsWith("HTTP/1.1 101")) {
+                throw new IOException("WebSocket handshake failed: " + response);
+            }
+            
+            writeText(out, "CONNECT\naccept-version:1.2\nhost:127.0.0.1\nheart-beat:0,0\n"
+                    + "Authorization:Bearer " + token + "\n\n\0");
+            String connected = readUntil(in, "\0");
+            if (!connected.contains("CONNECTED")) {
+                throw new IOException("STOMP CONNECT failed: " + connected);
+            }
+            for (int i = 0; i < destinations.length; i++) {
+                writeText(out, "SUBSCRIBE\nid:" + i + "\ndestination:" + destinations[i] + "\n\n\0");
+            }
+            return new StalledClient(socket);
+        }
+        
+        private static String readUntil(InputStream in, String terminator) throws IOException {
+            StringBuilder text = new StringBuilder();
+            while (text.indexOf(terminator) < 0) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Connection closed after: " + text);
+                }
+                text.append((char) b);
+            }
+            return text.toString();
+        }
+        
+        // Client frames must be masked; the mask itself can be anything
+        private static void writeText(OutputStream out, String text) throws IOException {
+            byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(0x81);
+            if (payload.length < 126) {
+                frame.write(0x80 | payload.length);
+            } else {
+                frame.write(0x80 | 126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length & 0xFF);
+            }
+            byte[] mask = {0x12, 0x34, 0x56, 0x78};
+            frame.write(mask);
+            for (int i = 0; i < payload.length; i++) {
+                frame.write(payload[i] ^ mask[i % 4]);
+            }
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
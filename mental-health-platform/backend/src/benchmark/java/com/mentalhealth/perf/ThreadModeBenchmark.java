@@ -0,0 +1,232 @@
+package com.mentalhealth.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mentalhealth.MentalHealthApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load against the blocking Mongo-backed request path, once with platform
+ * threads and once with {@code spring.threads.virtual.enabled=true}.
+ *
+ * <p>Each mode boots the full application against an in-memory Mongo, seeds a user with
+ * mood entries and then has {@code bench.concurrency} clients call
+ * {@code GET /api/mood/analytics} back to back. Throughput and latency percentiles for
+ * both modes are written as JSON to {@code bench.report}. Virtual mode is skipped (and
+ * reported as such) on JVMs older than 21.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mentalhealth.perf.ThreadModeBenchmark -Dbench.concurrency=512
+ * </pre>
+ */
+public class ThreadModeBenchmark {
+    private static final int CONCURRENCY = Integer.getInteger("bench.concurrency", 256);
+    private static final int WARMUP_SECONDS = Integer.getInteger("bench.warmupSeconds", 5);
+    private static final int DURATION_SECONDS = Integer.getInteger("bench.durationSeconds", 15);
+    private static final int MOOD_ENTRIES = Integer.getInteger("bench.moodEntries", 90);
+    private static final String TOMCAT_THREADS = System.getProperty("bench.tomcatThreads", "200");
+    private static final String MODES = System.getProperty("bench.modes", "platform,virtual");
+    // A real MongoDB shows the I/O wait virtual threads are meant to hide; the in-memory default is CPU bound
+    private static final String MONGO_URI = System.getProperty("bench.mongoUri");
+    private static final Path REPORT = Path.of(System.getProperty("bench.report", "target/thread-mode-report.json"));
+    
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("javaVersion", Runtime.version().toString());
+        report.put("concurrency", CONCURRENCY);
+        report.put("warmupSeconds", WARMUP_SECONDS);
+        report.put("durationSeconds", DURATION_SECONDS);
+        report.put("tomcatMaxThreads", Integer.parseInt(TOMCAT_THREADS));
+        report.put("endpoint", "GET /api/mood/analytics?days=30");
+        report.put("mongo", MONGO_URI != null ? "external" : "in-memory");
+        
+        Map<String, Object> results = new LinkedHashMap<>();
+        LocalMongo localMongo = MONGO_URI == null ? LocalMongo.start() : null;
+        try {
+            for (String mode : MODES.split(",")) {
+                boolean virtual = "virtual".equals(mode.trim());
+                if (virtual && Runtime.version().feature() < 21) {
+                    results.put(mode, Map.of("skipped", "virtual threads require Java 21"));
+                    continue;
+                }
+                String database = "bench_" + mode.trim() + "_" + System.nanoTime();
+                results.put(mode, run(localMongo != null ? localMongo.uri(database) : MONGO_URI, virtual));
+            }
+        } finally {
+            if (localMongo != null) {
+                localMongo.close();
+            }
+        }
+        report.put("results", results);
+        
+        Files.createDirectories(REPORT.toAbsolutePath().getParent());
+        mapper.writeValue(REPORT.toFile(), report);
+        System.out.println(mapper.writeValueAsString(report));
+        System.exit(0);
+    }
+    
+    private static Map<String, Object> run(String mongoUri, boolean virtual) throws Exception {
+        // Command line arguments, so they win over application.yml
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(MentalHealthApplication.class)
+                .run("--server.port=0",
+                        "--server.tomcat.threads.max=" + TOMCAT_THREADS,
+                        "--management.server.port=0",
+                        "--spring.data.mongodb.uri=" + mongoUri,
+                        "--spring.threads.virtual.enabled=" + virtual,
+                        "--app.security.bcrypt.strength=4",
+                        "--logging.level.root=WARN",
+                        "--logging.level.com.mentalhealth=WARN",
+                        "--logging.level.org.springframework.security=WARN");
+        try {
+            String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(Executors.newFixedThreadPool(Math.max(4, CONCURRENCY / 8)))
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            String token = seed(client, baseUrl);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/mood/analytics?days=30"))
+                    .header("Authorization", "Bearer " + token)
+                    .timeout(Duration.ofSeconds(30))
+                    .GET()
+                    .build();
+            
+            load(client, request, WARMUP_SECONDS);
+            return load(client, request, DURATION_SECONDS).toReport();
+        } finally {
+            context.close();
+        }
+    }
+    
+    private static String seed(HttpClient client, String baseUrl) throws Exception {
+        String suffix = Long.toString(System.nanoTime(), 36);
+        Map<String, Object> register = Map.of(
+                "username", "bench" + suffix,
+                "email", "bench" + suffix + "@example.com",
+                "password", "benchmark-password");
+        JsonNode auth = mapper.readTree(post(client, baseUrl + "/api/auth/register", null, register));
+        String token = auth.path("token").asText();
+        if (token.isEmpty()) {
+            throw new IllegalStateException("Registration failed: " + auth);
+        }
+        
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < MOOD_ENTRIES; i++) {
+            Map<String, Object> entry = Map.of(
+                    "date", today.minusDays(i).toString(),
+                    "moodScore", 1 + (i * 7) % 10,
+                    "moodLabel", i % 2 == 0 ? "Calm" : "Anxious",
+                    "sleepHours", 6 + i % 3);
+            post(client, baseUrl + "/api/mood", token, entry);
+        }
+        return token;
+    }
+    
+    private static String post(HttpClient client, String url, String token, Object body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+    
+    private static Sample load(HttpClient client, HttpRequest request, int seconds) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        AtomicLong errors = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(CONCURRENCY);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>(CONCURRENCY);
+            for (int i = 0; i < CONCURRENCY; i++) {
+                futures.add(workers.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (Exception ex) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+            
+            List<long[]> perWorker = new ArrayList<>(CONCURRENCY);
+            for (Future<long[]> future : futures) {
+                perWorker.add(future.get());
+            }
+            return new Sample(perWorker, errors.get(), seconds);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+    
+    private static final class Sample {
+        private final long[] latencies;
+        private final long errors;
+        private final int seconds;
+        
+        Sample(List<long[]> perWorker, long errors, int seconds) {
+            this.latencies = perWorker.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+        
+        Map<String, Object> toReport() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", latencies.length);
+            result.put("errors", errors);
+            result.put("throughputPerSecond", Math.round(latencies.length / (double) seconds));
+            result.put("p50Millis", percentileMillis(0.50));
+            result.put("p99Millis", percentileMillis(0.99));
+            result.put("maxMillis", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1_000_000.0);
+            return result;
+        }
+        
+        private double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
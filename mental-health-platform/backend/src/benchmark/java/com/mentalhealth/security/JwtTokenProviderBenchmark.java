@@ -0,0 +1,90 @@
+package com.mentalhealth.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request JWT cost in {@link JwtAuthenticationFilter}.
+ *
+ * <p>{@code legacyValidateThenParse} reproduces the old filter path (key decoded and parser
+ * built per call, token verified twice); {@code verifyOnce} is the current path. CPU saved at
+ * a given load is {@code (legacy - current) * requestsPerSecond}, e.g. a 10 us delta at
+ * 2,000 req/s is 2% of one core.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtTokenProviderBenchmark {
+    static final String SECRET =
+            "YourSuperSecretKeyForJWTTokenGenerationMustBe256BitsLongForHS256AlgorithmToWorkProperly";
+    
+    private JwtTokenProvider tokenProvider;
+    private String token;
+    
+    @Setup
+    public void setUp() {
+        tokenProvider = newTokenProvider();
+        token = tokenProvider.generateToken(authenticationFor(samplePrincipal()));
+    }
+    
+    @Benchmark
+    public JwtVerification verifyOnce() {
+        return tokenProvider.verify(token);
+    }
+    
+    @Benchmark
+    public String legacyValidateThenParse() {
+        Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)))
+                .build()
+                .parseSignedClaims(token);
+        
+        Claims claims = Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)))
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+        return claims.getSubject();
+    }
+    
+    @Benchmark
+    public String generateToken() {
+        return tokenProvider.generateToken(authenticationFor(samplePrincipal()));
+    }
+    
+    static JwtTokenProvider newTokenProvider() {
+        JwtTokenProvider provider = new JwtTokenProvider(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(provider, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(provider, "jwtExpiration", 86400000L);
+        provider.init();
+        return provider;
+    }
+    
+    static UserPrincipal samplePrincipal() {
+        return new UserPrincipal(
+                "65f1c0ffee0000000000abcd",
+                "benchmark-user",
+                "benchmark@mentalhealth.com",
+                "$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmarkbenchm",
+                List.of(new SimpleGrantedAuthority("ROLE_USER")),
+                true
+        );
+    }
+    
+    static UsernamePasswordAuthenticationToken authenticationFor(UserPrincipal principal) {
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    }
+}
@@ -0,0 +1,126 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.model.ChatMessage;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encrypting chat content at rest with {@link MessageCipher}.
+ *
+ * <p>{@code encrypt} and {@code decrypt} are the latency added to one message send and one
+ * message read; {@code naiveEncrypt} derives the key and creates a Cipher per message, for
+ * comparison. {@code decryptHistoryPage} is a full history page of 200 messages. The
+ * throughput benchmarks run on every core, so their score is the encryption ceiling of this
+ * machine in messages per millisecond.
+ *
+ * <p>{@code encryptOnNewThread} encrypts on a thread that has never encrypted before, as every
+ * request does with virtual threads; {@code newThread} is the same thread without the work,
+ * so the difference between the two is what such a call costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageCipherBenchmark {
+    static final String SECRET = "AES256BitEncryptionKeyForMessages";
+    static final String SESSION_ID = "65f1c0ffee0000000000beef";
+    static final int HISTORY_PAGE = 200;
+    
+    @Param({"64", "1024"})
+    public int contentLength;
+    
+    private MessageCipher messageCipher;
+    private String content;
+    private String encrypted;
+    private List<String> encryptedPage;
+    
+    @Setup
+    public void setUp() {
+        messageCipher = new MessageCipher(SECRET, "k1", List.of());
+        content = "a".repeat(contentLength);
+        encrypted = messageCipher.encrypt(content, SESSION_ID);
+        encryptedPage = new ArrayList<>();
+        for (int i = 0; i < HISTORY_PAGE; i++) {
+            encryptedPage.add(messageCipher.encrypt(content, SESSION_ID));
+        }
+    }
+    
+    @Benchmark
+    public String encrypt() {
+        return messageCipher.encrypt(content, SESSION_ID);
+    }
+    
+    @Benchmark
+    public String decrypt() {
+        return messageCipher.decrypt(encrypted, SESSION_ID);
+    }
+    
+    @Benchmark
+    public List<ChatMessage> decryptHistoryPage() {
+        // Fresh messages each time, since decryptAll moves the ciphertext into content
+        List<ChatMessage> page = new ArrayList<>(HISTORY_PAGE);
+        for (String value : encryptedPage) {
+            page.add(ChatMessage.builder().sessionId(SESSION_ID).encryptedContent(value).build());
+        }
+        messageCipher.decryptAll(page);
+        return page;
+    }
+    
+    @Benchmark
+    public String naiveEncrypt() throws Exception {
+        byte[] key = MessageDigest.getInstance("SHA-256").digest(SECRET.getBytes(StandardCharsets.UTF_8));
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        cipher.updateAAD(SESSION_ID.getBytes(StandardCharsets.UTF_8));
+        byte[] ciphertext = cipher.doFinal(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(iv) + Base64.getEncoder().encodeToString(ciphertext);
+    }
+    
+    @Benchmark
+    public String encryptOnNewThread() throws InterruptedException {
+        String[] result = new String[1];
+        Thread thread = new Thread(() -> result[0] = messageCipher.encrypt(content, SESSION_ID));
+        thread.start();
+        thread.join();
+        return result[0];
+    }
+    
+    @Benchmark
+    public String newThread() throws InterruptedException {
+        String[] result = new String[1];
+        Thread thread = new Thread(() -> result[0] = content);
+        thread.start();
+        thread.join();
+        return result[0];
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(Threads.MAX)
+    public String encryptThroughput() {
+        return messageCipher.encrypt(content, SESSION_ID);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(Threads.MAX)
+    public String decryptThroughput() {
+        return messageCipher.decrypt(encrypted, SESSION_ID);
+    }
+}
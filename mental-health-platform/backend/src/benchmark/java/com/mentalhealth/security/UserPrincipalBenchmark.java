@@ -0,0 +1,48 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a {@link User} document into a {@link UserPrincipal}, paid on every
+ * user cache miss and on every login.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserPrincipalBenchmark {
+    @Param({"1", "3"})
+    public int roleCount;
+    
+    private User user;
+    
+    @Setup
+    public void setUp() {
+        EnumSet<User.Role> roles = EnumSet.noneOf(User.Role.class);
+        for (User.Role role : User.Role.values()) {
+            if (roles.size() < roleCount) {
+                roles.add(role);
+            }
+        }
+        
+        user = User.builder()
+                .id("65f1c0ffee0000000000abcd")
+                .username("benchmark-user")
+                .email("benchmark@mentalhealth.com")
+                .password("$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmarkbenchm")
+                .roles(roles)
+                .active(true)
+                .build();
+    }
+    
+    @Benchmark
+    public UserPrincipal create() {
+        return UserPrincipal.create(user);
+    }
+}
@@ -0,0 +1,80 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.model.MoodEntry;
+import com.mentalhealth.repository.MoodEntryRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cost of {@link MoodService#getMoodAnalytics} and its trend calculation over
+ * synthetic histories, one entry per day. The repository is a stub returning a prebuilt
+ * list, so Mongo time is excluded and only our own aggregation is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoodServiceBenchmark {
+    private static final String[] LABELS = {"Happy", "Sad", "Anxious", "Calm", "Angry", "Tired"};
+    
+    @Param({"30", "365", "3650"})
+    public int days;
+    
+    private MoodService moodService;
+    private List<MoodEntry> entries;
+    
+    @Setup
+    public void setUp() {
+        entries = syntheticEntries(days);
+        moodService = new MoodService(stubRepository(entries));
+    }
+    
+    @Benchmark
+    public Map<String, Object> getMoodAnalytics() {
+        return moodService.getMoodAnalytics("benchmark-user", days);
+    }
+    
+    @Benchmark
+    public String calculateTrend() {
+        return moodService.calculateTrend(entries);
+    }
+    
+    // Newest first, as the repository returns them
+    static List<MoodEntry> syntheticEntries(int days) {
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDate today = LocalDate.now();
+        List<MoodEntry> result = new ArrayList<>(days);
+        for (int i = 0; i < days; i++) {
+            result.add(MoodEntry.builder()
+                    .userId("benchmark-user")
+                    .date(today.minusDays(i))
+                    .moodScore(random.nextInt(1, 11))
+                    .moodLabel(LABELS[random.nextInt(LABELS.length)])
+                    .sleepHours(random.nextInt(4, 10))
+                    .exerciseMinutes(random.nextInt(0, 90))
+                    .build());
+        }
+        return result;
+    }
+    
+    private static MoodEntryRepository stubRepository(List<MoodEntry> entries) {
+        return (MoodEntryRepository) Proxy.newProxyInstance(
+                MoodEntryRepository.class.getClassLoader(),
+                new Class<?>[]{MoodEntryRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findByUserIdAndDateBetweenOrderByDateDesc")) {
+                        return entries;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
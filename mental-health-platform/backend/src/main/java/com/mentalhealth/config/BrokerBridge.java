@@ -0,0 +1,314 @@
+package com.mentalhealth.config;
+
+import com.mentalhealth.security.MessageCipher;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-node fan-out for {@code app.websocket.broker.mode=bridge}. Every node keeps its own
+ * simple broker; messages the application sends to the broker channel are also inserted into
+ * a shared collection, and each node follows that collection with a change stream and hands
+ * other nodes' messages to its local broker.
+ *
+ * <p>Change streams need MongoDB to run as a replica set (a single member is enough). Events
+ * are kept for {@code retention} and only to let a node resume after a brief disconnect;
+ * clients reconnecting after longer gaps catch up through the chat history endpoints.
+ * Payloads carry decrypted chat content, so they are stored encrypted with {@link MessageCipher},
+ * bound to their destination.
+ *
+ * <p>Messages to {@code batched-destinations} (typing, presence) only matter in their latest
+ * state. They are not inserted one by one: the newest per destination is kept, and all of them
+ * are inserted together every {@code batch-interval}, so other nodes see them that much later.
+ *
+ * <p>Like the relay's system subscriptions, a destination can be {@link #subscribe subscribed}
+ * to by the application: other nodes' messages to it go to that handler instead of the broker.
+ */
+@Component
+@ConditionalOnProperty(name = "app.websocket.broker.mode", havingValue = "bridge")
+public class BrokerBridge implements ChannelInterceptor, SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(BrokerBridge.class);
+    
+    // Set on messages delivered from another node, so they are not published again
+    private static final String ORIGIN_HEADER = "brokerBridgeOrigin";
+    private static final long EMPTY_POLL_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    
+    private final MongoTemplate mongoTemplate;
+    private final MessageChannel brokerChannel;
+    private final MessageCipher messageCipher;
+    private final String collection;
+    private final Duration retention;
+    private final List<String> batchedDestinations;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final String nodeId = UUID.randomUUID().toString();
+    
+    // Destination -> newest event waiting for the next batch
+    private final Map<String, Document> batched = new ConcurrentHashMap<>();
+    private final Map<String, MessageHandler> subscriptions = new ConcurrentHashMap<>();
+    
+    private final Counter published;
+    private final Counter publishFailures;
+    private final Counter delivered;
+    private final Timer deliveryLag;
+    
+    private volatile boolean running;
+    private Thread follower;
+    
+    public BrokerBridge(MongoTemplate mongoTemplate,
+                        @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                        MessageCipher messageCipher,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.websocket.broker.bridge.collection:broker_events}") String collection,
+                        @Value("${app.websocket.broker.bridge.retention:10m}") Duration retention,
+                        @Value("${app.websocket.broker.bridge.batched-destinations:}") List<String> batchedDestinations) {
+        this.mongoTemplate = mongoTemplate;
+        this.brokerChannel = brokerChannel;
+        this.messageCipher = messageCipher;
+        this.collection = collection;
+        this.retention = retention;
+        this.batchedDestinations = batchedDestinations;
+        
+        this.published = Counter.builder("websocket.bridge.messages")
+                .tag("result", "published")
+                .register(meterRegistry);
+        this.publishFailures = Counter.builder("websocket.bridge.messages")
+                .tag("result", "publish_failed")
+                .register(meterRegistry);
+        this.delivered = Counter.builder("websocket.bridge.messages")
+                .tag("result", "delivered")
+                .register(meterRegistry);
+        this.deliveryLag = Timer.builder("websocket.bridge.lag")
+                .description("Time from publish on one node to delivery on another (subject to clock skew)")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+    
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders messageHeaders = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(messageHeaders) != SimpMessageType.MESSAGE
+                || messageHeaders.containsKey(ORIGIN_HEADER)
+                // A user destination resolved to a local session; the unresolved one was already published
+                || messageHeaders.containsKey(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION)
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return message;
+        }
+        Document event = new Document("origin", nodeId)
+                .append("destination", destination)
+                .append("payload", new Binary(messageCipher.encrypt(payload, destination)))
+                .append("createdAt", new Date());
+        if (accessor.getContentType() != null) {
+            event.append("contentType", accessor.getContentType().toString());
+        }
+        Map<String, List<String>> nativeHeaders = accessor.toNativeHeaderMap();
+        if (!nativeHeaders.isEmpty()) {
+            Document headers = new Document();
+            nativeHeaders.forEach(headers::append);
+            event.append("nativeHeaders", headers);
+        }
+        
+        if (batchedDestinations.stream().anyMatch(pattern -> pathMatcher.match(pattern, destination))) {
+            batched.put(destination, event);
+            return message;
+        }
+        
+        // Local subscribers are served regardless; other nodes miss this message if the insert fails
+        try {
+            mongoTemplate.getCollection(collection).insertOne(event);
+            published.increment();
+        } catch (MongoException | DataAccessException ex) {
+            publishFailures.increment();
+            logger.warn("Could not publish broker message for {} to other nodes: {}",
+                    destination, ex.getMessage());
+        }
+        return message;
+    }
+    
+    public void subscribe(String destination, MessageHandler handler) {
+        subscriptions.put(destination, handler);
+    }
+    
+    @Scheduled(fixedDelayString = "${app.websocket.broker.bridge.batch-interval:250}")
+    public void publishBatched() {
+        if (batched.isEmpty()) {
+            return;
+        }
+        List<Document> events = new ArrayList<>(batched.size());
+        for (String destination : batched.keySet()) {
+            Document event = batched.remove(destination);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        
+        try {
+            mongoTemplate.getCollection(collection).insertMany(events, new InsertManyOptions().ordered(false));
+            published.increment(events.size());
+        } catch (MongoException | DataAccessException ex) {
+            publishFailures.increment(events.size());
+            logger.warn("Could not publish {} batched broker messages to other nodes: {}", events.size(), ex.getMessage());
+        }
+    }
+    
+    @Override
+    public void start() {
+        mongoTemplate.indexOps(collection)
+                .ensureIndex(new Index().on("createdAt", Sort.Direction.ASC).expire(retention));
+        running = true;
+        follower = new Thread(this::follow, "broker-bridge");
+        follower.setDaemon(true);
+        follower.start();
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        if (follower != null) {
+            follower.interrupt();
+            try {
+                follower.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void follow() {
+        BsonDocument resumeToken = null;
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = openCursor(resumeToken)) {
+                while (running) {
+                    long polledAt = System.nanoTime();
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change == null) {
+                        // Servers that ignore maxAwaitTime answer an empty poll at once; don't spin on them
+                        if (System.nanoTime() - polledAt < EMPTY_POLL_PAUSE_NANOS) {
+                            TimeUnit.NANOSECONDS.sleep(EMPTY_POLL_PAUSE_NANOS);
+                        }
+                        continue;
+                    }
+                    resumeToken = change.getResumeToken();
+                    if (change.getOperationType() == OperationType.INSERT && change.getFullDocument() != null) {
+                        deliver(change.getFullDocument());
+                    }
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (MongoException ex) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Broker bridge change stream failed, reconnecting: {}", ex.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor(BsonDocument resumeToken) {
+        var changeStream = mongoTemplate.getCollection(collection)
+                .watch()
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (resumeToken != null) {
+            changeStream = changeStream.resumeAfter(resumeToken);
+        }
+        return changeStream.cursor();
+    }
+    
+    private void deliver(Document event) {
+        String origin = event.getString("origin");
+        if (nodeId.equals(origin)) {
+            return;
+        }
+        
+        String destination = event.getString("destination");
+        byte[] payload;
+        try {
+            payload = messageCipher.decrypt(event.get("payload", Binary.class).getData(), destination);
+        } catch (IllegalStateException ex) {
+            logger.warn("Dropping broker message for {} from another node: {}", destination, ex.getMessage());
+            return;
+        }
+        
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setHeader(ORIGIN_HEADER, origin);
+        String contentType = event.getString("contentType");
+        if (contentType != null) {
+            accessor.setContentType(MimeType.valueOf(contentType));
+        }
+        Document nativeHeaders = event.get("nativeHeaders", Document.class);
+        if (nativeHeaders != null) {
+            nativeHeaders.forEach((name, values) -> ((List<?>) values)
+                    .forEach(value -> accessor.addNativeHeader(name, String.valueOf(value))));
+        }
+        
+        Message<byte[]> message = MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+        MessageHandler handler = subscriptions.get(destination);
+        if (handler != null) {
+            handler.handleMessage(message);
+        } else {
+            brokerChannel.send(message);
+        }
+        delivered.increment();
+        
+        Date createdAt = event.getDate("createdAt");
+        if (createdAt != null) {
+            deliveryLag.record(Math.max(0, System.currentTimeMillis() - createdAt.getTime()), TimeUnit.MILLISECONDS);
+        }
+    }
+}
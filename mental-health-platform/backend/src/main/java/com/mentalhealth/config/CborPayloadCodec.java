@@ -0,0 +1,206 @@
+package com.mentalhealth.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CBOR payloads for STOMP clients that ask for them. JSON stays the default for everyone else.
+ *
+ * <p>A client asks by sending {@code accept-content-type: application/cbor} on CONNECT. This
+ * only works over a plain WebSocket ({@code /ws/websocket}), because CBOR needs binary frames and
+ * SockJS only carries text. SockJS clients asking for it keep getting JSON. For a connection
+ * that negotiated CBOR, the JSON payload of every MESSAGE frame is transcoded token by token
+ * when an outbound thread picks the frame up. The frame's {@code content-type} says which
+ * encoding it holds, and all frames to that connection go out as binary WebSocket messages.
+ * Broadcasts are still serialized once; only the connections that want CBOR pay for the
+ * transcoding. Clients may also SEND {@code application/cbor} payloads, read by
+ * {@link #messageConverter()}.
+ */
+@Component
+public class CborPayloadCodec implements WebSocketHandlerDecoratorFactory {
+    private static final Logger logger = LoggerFactory.getLogger(CborPayloadCodec.class);
+    
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+    public static final String ACCEPT_HEADER = "accept-content-type";
+    
+    // Set on WebSocket sessions that can carry binary frames, i.e. not SockJS
+    private static final String BINARY_FRAMES = CborPayloadCodec.class.getName() + ".binaryFrames";
+    
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+    
+    // Connection ids that negotiated CBOR
+    private final Set<String> cborConnections = ConcurrentHashMap.newKeySet();
+    
+    private final ChannelInterceptor inbound = new Negotiation();
+    private final ExecutorChannelInterceptor outbound = new Transcoding();
+    private final Counter jsonBytes;
+    private final Counter cborBytes;
+    
+    public CborPayloadCodec(MeterRegistry meterRegistry) {
+        this.jsonBytes = Counter.builder("websocket.outbound.cbor.bytes")
+                .description("Payload bytes of frames transcoded to CBOR, before and after")
+                .tag("encoding", "json")
+                .register(meterRegistry);
+        this.cborBytes = Counter.builder("websocket.outbound.cbor.bytes")
+                .description("Payload bytes of frames transcoded to CBOR, before and after")
+                .tag("encoding", "cbor")
+                .register(meterRegistry);
+    }
+    
+    public ChannelInterceptor inbound() {
+        return inbound;
+    }
+    
+    public ExecutorChannelInterceptor outbound() {
+        return outbound;
+    }
+    
+    /** Reads {@code application/cbor} SEND payloads; never picked for frames without that content type. */
+    public MessageConverter messageConverter() {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(
+                Jackson2ObjectMapperBuilder.cbor().build(), APPLICATION_CBOR);
+        converter.setStrictContentTypeMatch(true);
+        return converter;
+    }
+    
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                if (!(session instanceof SockJsSession)) {
+                    session.getAttributes().put(BINARY_FRAMES, Boolean.TRUE);
+                }
+                super.afterConnectionEstablished(new BinaryFramesSession(session));
+            }
+            
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                cborConnections.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+    
+    /** Re-encodes a JSON document as CBOR, without building a tree. */
+    byte[] toCbor(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+    
+    private final class Negotiation implements ChannelInterceptor {
+        
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            MessageHeaders headers = message.getHeaders();
+            if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.CONNECT) {
+                return message;
+            }
+            StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+            Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(headers);
+            String accepted = accessor != null ? accessor.getFirstNativeHeader(ACCEPT_HEADER) : null;
+            if (accepted != null && attributes != null && attributes.containsKey(BINARY_FRAMES)
+                    && MimeTypeUtils.parseMimeTypes(accepted).stream().anyMatch(APPLICATION_CBOR::equalsTypeAndSubtype)) {
+                cborConnections.add(accessor.getSessionId());
+            }
+            return message;
+        }
+    }
+    
+    private final class Transcoding implements ExecutorChannelInterceptor {
+        
+        // After coalescing has picked the frame that is actually sent
+        @Override
+        public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+            MessageHeaders headers = message.getHeaders();
+            if (cborConnections.isEmpty()
+                    || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                    || !cborConnections.contains(SimpMessageHeaderAccessor.getSessionId(headers))
+                    || !(message.getPayload() instanceof byte[] json)) {
+                return message;
+            }
+            Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+            if (contentType == null || !MimeTypeUtils.APPLICATION_JSON.equalsTypeAndSubtype(
+                    contentType instanceof MimeType mimeType ? mimeType : MimeTypeUtils.parseMimeType(contentType.toString()))) {
+                return message;
+            }
+            
+            byte[] cbor;
+            try {
+                cbor = toCbor(json);
+            } catch (IOException | UncheckedIOException ex) {
+                logger.debug("Sending JSON, could not transcode payload to CBOR: {}", ex.getMessage());
+                return message;
+            }
+            jsonBytes.increment(json.length);
+            cborBytes.increment(cbor.length);
+            
+            MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+            accessor.setContentType(APPLICATION_CBOR);
+            return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+        }
+    }
+    
+    /** Sends every frame to a connection that negotiated CBOR as a binary WebSocket message. */
+    private final class BinaryFramesSession extends WebSocketSessionDecorator {
+        
+        BinaryFramesSession(WebSocketSession session) {
+            super(session);
+        }
+        
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (message instanceof TextMessage text && cborConnections.contains(getId())) {
+                super.sendMessage(new BinaryMessage(text.asBytes()));
+            } else {
+                super.sendMessage(message);
+            }
+        }
+    }
+}
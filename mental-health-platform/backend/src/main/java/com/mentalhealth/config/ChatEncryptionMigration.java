@@ -0,0 +1,132 @@
+package com.mentalhealth.config;
+
+import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.security.MessageCipher;
+import com.mongodb.MongoException;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Brings stored chat content up to the current encryption key: messages and previews written
+ * in plaintext before encryption was enabled, and values under a key that has since been
+ * rotated out.
+ *
+ * <p>Runs in the background once the application is ready; until it is done, reads handle
+ * plaintext and previous keys. A retired key can be dropped from {@code previous-keys} once
+ * a run has logged that it re-encrypted nothing.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatEncryptionMigration {
+    private static final Logger logger = LoggerFactory.getLogger(ChatEncryptionMigration.class);
+    
+    private static final int BATCH_SIZE = 500;
+    
+    private final MongoTemplate mongoTemplate;
+    private final MessageCipher messageCipher;
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread worker = new Thread(this::run, "chat-reencrypt");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    private void run() {
+        try {
+            long messages = reencryptMessages();
+            long previews = reencryptPreviews();
+            logger.info("Re-encrypted {} chat messages and {} session previews with the current key",
+                    messages, previews);
+        } catch (MongoException | DataAccessException | IllegalStateException ex) {
+            logger.warn("Re-encrypting chat content stopped, it resumes on the next start: {}", ex.getMessage());
+        }
+    }
+    
+    private long reencryptMessages() {
+        Query query = new Query(new Criteria().orOperator(
+                where("content").exists(true),
+                where("encryptedContent").exists(true).not().regex(currentKeyPattern())));
+        query.fields().include("sessionId").include("content").include("encryptedContent");
+        
+        long count = 0;
+        BulkOperations bulk = null;
+        try (Stream<Document> stale = mongoTemplate.stream(query, Document.class,
+                mongoTemplate.getCollectionName(ChatMessage.class))) {
+            for (Document message : (Iterable<Document>) stale::iterator) {
+                String sessionId = message.getString("sessionId");
+                String plaintext = message.containsKey("content")
+                        ? message.getString("content")
+                        : messageCipher.decrypt(message.getString("encryptedContent"), sessionId);
+                
+                if (bulk == null) {
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessage.class);
+                }
+                bulk.updateOne(new Query(where("_id").is(message.get("_id"))), new Update()
+                        .set("encryptedContent", messageCipher.encrypt(plaintext, sessionId))
+                        .unset("content"));
+                if (++count % BATCH_SIZE == 0) {
+                    bulk.execute();
+                    bulk = null;
+                }
+            }
+        }
+        if (bulk != null) {
+            bulk.execute();
+        }
+        return count;
+    }
+    
+    private long reencryptPreviews() {
+        Query query = new Query(where("lastMessagePreview").exists(true).not().regex(currentKeyPattern()));
+        query.fields().include("lastMessagePreview");
+        
+        long count = 0;
+        BulkOperations bulk = null;
+        try (Stream<Document> stale = mongoTemplate.stream(query, Document.class,
+                mongoTemplate.getCollectionName(ChatSession.class))) {
+            for (Document session : (Iterable<Document>) stale::iterator) {
+                String sessionId = session.getObjectId("_id").toHexString();
+                String stored = session.getString("lastMessagePreview");
+                
+                if (bulk == null) {
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatSession.class);
+                }
+                // Only if no newer message replaced the preview in the meantime
+                bulk.updateOne(
+                        new Query(where("_id").is(session.get("_id")).and("lastMessagePreview").is(stored)),
+                        new Update().set("lastMessagePreview",
+                                messageCipher.encrypt(messageCipher.decrypt(stored, sessionId), sessionId)));
+                if (++count % BATCH_SIZE == 0) {
+                    bulk.execute();
+                    bulk = null;
+                }
+            }
+        }
+        if (bulk != null) {
+            bulk.execute();
+        }
+        return count;
+    }
+    
+    private Pattern currentKeyPattern() {
+        return Pattern.compile("^" + Pattern.quote(messageCipher.getCurrentPrefix()));
+    }
+}
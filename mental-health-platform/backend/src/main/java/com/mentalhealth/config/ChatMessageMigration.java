@@ -0,0 +1,94 @@
+package com.mentalhealth.config;
+
+import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.repository.ChatSessionRepository;
+import com.mentalhealth.security.MessageCipher;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Moves messages still embedded in {@code chat_sessions} documents into {@code chat_messages}.
+ *
+ * <p>Runs while the context starts, before the web server accepts requests. Each session
+ * first reserves a block of sequence numbers and records its start, so a crash at any
+ * point can be retried: the message upserts are keyed by (sessionId, seq) and the
+ * embedded list is only removed once all of them are written.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatMessageMigration implements InitializingBean {
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageMigration.class);
+    
+    private static final String LEGACY_MESSAGES = "messages";
+    private static final String LEGACY_SEQ_BASE = "legacyMessageSeqBase";
+    
+    private final MongoTemplate mongoTemplate;
+    private final ChatSessionRepository chatSessionRepository;
+    private final MessageCipher messageCipher;
+    
+    @Override
+    public void afterPropertiesSet() {
+        Query query = new Query(where(LEGACY_MESSAGES + ".0").exists(true));
+        query.fields().include(LEGACY_MESSAGES).include(LEGACY_SEQ_BASE);
+        
+        String sessions = mongoTemplate.getCollectionName(ChatSession.class);
+        int migratedSessions = 0;
+        long migratedMessages = 0;
+        try (Stream<Document> legacy = mongoTemplate.stream(query, Document.class, sessions)) {
+            for (Document session : (Iterable<Document>) legacy::iterator) {
+                migratedMessages += migrate(session, sessions);
+                migratedSessions++;
+            }
+        }
+        
+        if (migratedSessions > 0) {
+            logger.info("Moved {} embedded chat messages from {} sessions to {}",
+                    migratedMessages, migratedSessions, mongoTemplate.getCollectionName(ChatMessage.class));
+        }
+    }
+    
+    private int migrate(Document session, String sessions) {
+        String sessionId = session.getObjectId("_id").toHexString();
+        List<Document> messages = session.getList(LEGACY_MESSAGES, Document.class);
+        Query bySession = new Query(where("_id").is(session.get("_id")));
+        
+        Long base = session.getLong(LEGACY_SEQ_BASE);
+        if (base == null) {
+            base = chatSessionRepository.reserveMessageSeqs(sessionId, messages.size()).orElseThrow();
+            mongoTemplate.updateFirst(bySession, new Update().set(LEGACY_SEQ_BASE, base), sessions);
+        }
+        
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessage.class);
+        for (int i = 0; i < messages.size(); i++) {
+            long seq = base + i;
+            Update insert = new Update().setOnInsert("sessionId", sessionId).setOnInsert("seq", seq);
+            messages.get(i).forEach((field, value) -> {
+                // Upserts skip the encryption callback
+                if ("content".equals(field)) {
+                    insert.setOnInsert("encryptedContent", messageCipher.encrypt((String) value, sessionId));
+                } else {
+                    insert.setOnInsert(field, value);
+                }
+            });
+            bulk.upsert(new Query(where("sessionId").is(sessionId).and("seq").is(seq)), insert);
+        }
+        bulk.execute();
+        
+        mongoTemplate.updateFirst(bySession, new Update().unset(LEGACY_MESSAGES).unset(LEGACY_SEQ_BASE), sessions);
+        return messages.size();
+    }
+}
@@ -0,0 +1,208 @@
+package com.mentalhealth.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the server does when a WebSocket client reads slower than messages arrive for it.
+ *
+ * <p>Frames to {@code coalesced-destinations} (typing, read receipts, presence) only matter
+ * in their latest state. While one is queued for a connection, a newer frame to the same
+ * destination replaces it instead of queueing behind it, and while a connection's socket
+ * write has been blocked longer than {@code stall-threshold} they are dropped.
+ *
+ * <p>Every other frame is delivered or the connection is closed: Spring buffers frames behind
+ * a blocked write up to the transport's send-buffer-size-limit and closes the session with
+ * {@link CloseStatus#SESSION_NOT_RELIABLE} once a write has taken longer than send-time-limit
+ * or the buffer overflows. The client reconnects and fetches what it missed from the history
+ * endpoints.
+ */
+@Component
+public class SlowConsumerPolicy implements ExecutorChannelInterceptor, WebSocketHandlerDecoratorFactory {
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerPolicy.class);
+    
+    // Tomcat's timeout for a blocking WebSocket write; without it a stuck write holds an outbound thread for 20s
+    static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+    
+    private final List<String> coalescedDestinations;
+    private final long stallThresholdNanos;
+    private final long sendTimeLimitMillis;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+    // The newest frame per connection and destination that is still waiting for an outbound thread
+    private final Map<PendingKey, Message<?>> queued = new ConcurrentHashMap<>();
+    
+    private final Counter coalesced;
+    private final Counter dropped;
+    private final Counter closed;
+    
+    public SlowConsumerPolicy(MeterRegistry meterRegistry,
+                              @Value("${app.websocket.outbound.coalesced-destinations:}") List<String> coalescedDestinations,
+                              @Value("${app.websocket.outbound.stall-threshold:1s}") Duration stallThreshold,
+                              @Value("${app.websocket.transport.send-time-limit:10s}") Duration sendTimeLimit) {
+        this.coalescedDestinations = coalescedDestinations;
+        this.stallThresholdNanos = stallThreshold.toNanos();
+        this.sendTimeLimitMillis = sendTimeLimit.toMillis();
+        
+        this.coalesced = Counter.builder("websocket.outbound.frames")
+                .description("Outbound frames not sent because of a slow client")
+                .tag("result", "coalesced")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("websocket.outbound.frames")
+                .description("Outbound frames not sent because of a slow client")
+                .tag("result", "dropped")
+                .register(meterRegistry);
+        this.closed = Counter.builder("websocket.sessions.closed")
+                .description("Connections closed because the client could not keep up")
+                .tag("reason", "slow_consumer")
+                .register(meterRegistry);
+        Gauge.builder("websocket.sessions.stalled", this, SlowConsumerPolicy::stalledSessions)
+                .description("Connections whose socket write has been blocked longer than the stall threshold")
+                .register(meterRegistry);
+    }
+    
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        PendingKey key = coalescingKey(message.getHeaders());
+        if (key == null) {
+            return message;
+        }
+        
+        TrackedSession session = sessions.get(key.sessionId());
+        if (session != null && session.blockedNanos(System.nanoTime()) > stallThresholdNanos) {
+            dropped.increment();
+            return null;
+        }
+        // One frame per destination waits at a time; it goes out as whatever is newest when its turn comes
+        if (queued.put(key, message) != null) {
+            coalesced.increment();
+            return null;
+        }
+        return message;
+    }
+    
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        PendingKey key = coalescingKey(message.getHeaders());
+        if (key == null) {
+            return message;
+        }
+        Message<?> newest = queued.remove(key);
+        return newest != null ? newest : message;
+    }
+    
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                TrackedSession tracked = new TrackedSession(session);
+                sessions.put(session.getId(), tracked);
+                super.afterConnectionEstablished(tracked);
+            }
+            
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+    
+    private PendingKey coalescingKey(MessageHeaders headers) {
+        if (coalescedDestinations.isEmpty()
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) {
+            return null;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (destination == null || sessionId == null) {
+            return null;
+        }
+        for (String pattern : coalescedDestinations) {
+            if (pathMatcher.match(pattern, destination)) {
+                return new PendingKey(sessionId, destination);
+            }
+        }
+        return null;
+    }
+    
+    private double stalledSessions() {
+        long now = System.nanoTime();
+        return sessions.values().stream()
+                .filter(session -> session.blockedNanos(now) > stallThresholdNanos)
+                .count();
+    }
+    
+    private record PendingKey(String sessionId, String destination) {
+    }
+    
+    /** Records how long the write in progress, if any, has been blocked on the client. */
+    private final class TrackedSession extends WebSocketSessionDecorator {
+        // 0 while no write is in progress; Spring serializes writes per session
+        private volatile long writeStartedAt;
+        
+        TrackedSession(WebSocketSession session) {
+            super(session);
+            // Unwrapped, since decorators added after this one, e.g. CborPayloadCodec's, sit in between
+            if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession) {
+                jakarta.websocket.Session endpoint = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+                if (endpoint != null) {
+                    endpoint.getUserProperties().put(BLOCKING_SEND_TIMEOUT, sendTimeLimitMillis);
+                }
+            }
+        }
+        
+        long blockedNanos(long now) {
+            long startedAt = writeStartedAt;
+            return startedAt == 0 ? 0 : now - startedAt;
+        }
+        
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            writeStartedAt = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+        
+        @Override
+        public void close(CloseStatus status) throws IOException {
+            if (status.equalsCode(CloseStatus.SESSION_NOT_RELIABLE)) {
+                closed.increment();
+                logger.info("Closing WebSocket session {}: client is not reading fast enough", getId());
+            }
+            super.close(status);
+        }
+    }
+}
@@ -1,18 +1,110 @@
 package com.mentalhealth.config;
 
+import com.mentalhealth.security.StompAuthChannelInterceptor;
+import com.mentalhealth.service.PresenceTracker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    private final WebSocketMessageMetrics messageMetrics;
+    private final StompAuthChannelInterceptor stompAuthInterceptor;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final PresenceTracker presenceTracker;
+    private final CborPayloadCodec payloadCodec;
+    private final ObjectProvider<BrokerBridge> brokerBridge;
+    private final MeterRegistry meterRegistry;
+    private TaskScheduler heartbeatScheduler;
+    
+    // simple: in-memory broker, one node. bridge: in-memory broker per node, linked by BrokerBridge.
+    // relay: external STOMP broker shared by all nodes
+    @Value("${app.websocket.broker.mode:simple}")
+    private String brokerMode;
+    
+    @Value("${app.websocket.broker.relay.host:localhost}")
+    private String relayHost;
+    
+    @Value("${app.websocket.broker.relay.port:61613}")
+    private int relayPort;
+    
+    @Value("${app.websocket.broker.relay.login:guest}")
+    private String relayLogin;
+    
+    @Value("${app.websocket.broker.relay.passcode:guest}")
+    private String relayPasscode;
+    
+    // Per connection; a client that stays behind these is disconnected (see SlowConsumerPolicy)
+    @Value("${app.websocket.transport.send-time-limit:10s}")
+    private Duration sendTimeLimit;
+    
+    @Value("${app.websocket.transport.send-buffer-size-limit:512KB}")
+    private DataSize sendBufferSizeLimit;
+    
+    @Value("${app.websocket.transport.message-size-limit:64KB}")
+    private DataSize messageSizeLimit;
+    
+    // Sent by the in-memory broker and expected from clients; one that stays silent for three intervals is disconnected
+    @Value("${app.websocket.heartbeat:10s}")
+    private Duration heartbeat;
+    
+    // Same switch Spring Boot uses for Tomcat, @Async and @Scheduled (requires Java 21)
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    
+    @Value("${app.websocket.virtual-thread-concurrency:1024}")
+    private int virtualThreadConcurrency;
+    
+    @Value("${app.websocket.virtual-thread-queue-capacity:10000}")
+    private int virtualThreadQueueCapacity;
+    
+    @Autowired
+    public void setHeartbeatScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler heartbeatScheduler) {
+        this.heartbeatScheduler = heartbeatScheduler;
+    }
     
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue");
+        switch (brokerMode) {
+            case "simple", "bridge" -> config.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[] {heartbeat.toMillis(), heartbeat.toMillis()})
+                    .setTaskScheduler(heartbeatScheduler);
+            case "relay" -> config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    // Lets a node deliver /user destinations for sessions connected to another node
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            default -> throw new IllegalStateException("Unknown app.websocket.broker.mode: " + brokerMode);
+        }
+        brokerBridge.ifAvailable(bridge -> config.configureBrokerChannel().interceptors(bridge));
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
     }
@@ -23,4 +115,68 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOrigins("http://localhost:5173", "http://localhost:3000")
                 .withSockJS();
     }
+    
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit((int) sendTimeLimit.toMillis())
+                .setSendBufferSizeLimit((int) sendBufferSizeLimit.toBytes())
+                .setMessageSizeLimit((int) messageSizeLimit.toBytes())
+                .addDecoratorFactory(slowConsumerPolicy)
+                // Last, so it is outermost and sees whether the session is SockJS
+                .addDecoratorFactory(payloadCodec);
+    }
+    
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Only for application/cbor payloads; the default converters, JSON included, follow
+        messageConverters.add(payloadCodec.messageConverter());
+        return true;
+    }
+    
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Presence after auth, so a connection's frames already carry its user
+        registration.interceptors(messageMetrics.inbound(), stompAuthInterceptor, presenceTracker, payloadCodec.inbound());
+        if (virtualThreads) {
+            registration.taskExecutor(virtualThreadChannelExecutor("inbound"));
+        }
+    }
+    
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Counts only frames that survive coalescing, and transcodes only those
+        registration.interceptors(slowConsumerPolicy, payloadCodec.outbound(), messageMetrics.outbound());
+        if (virtualThreads) {
+            registration.taskExecutor(virtualThreadChannelExecutor("outbound"));
+        }
+    }
+    
+    /**
+     * Spring 6.1 channel registration only accepts a ThreadPoolTaskExecutor, so give it
+     * a virtual thread factory. A pool thread is started per task up to the core size,
+     * which caps concurrent handlers without tying up platform threads while they block.
+     * Beyond that, tasks wait in a bounded queue (its length is the channel executor's
+     * {@code executor.queued} metric). Once that is full the sending thread runs the handler
+     * itself, which holds back the connection or broker producing the frames.
+     */
+    private ThreadPoolTaskExecutor virtualThreadChannelExecutor(String channel) {
+        Counter callerRuns = Counter.builder("websocket.channel.caller.runs")
+                .description("STOMP frames handled on the sending thread because the channel queue was full")
+                .tag("channel", channel)
+                .register(meterRegistry);
+        ThreadPoolExecutor.CallerRunsPolicy callerRunsPolicy = new ThreadPoolExecutor.CallerRunsPolicy();
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(new VirtualThreadTaskExecutor("stomp-" + channel + "-").getVirtualThreadFactory());
+        executor.setCorePoolSize(virtualThreadConcurrency);
+        executor.setMaxPoolSize(virtualThreadConcurrency);
+        executor.setQueueCapacity(virtualThreadQueueCapacity);
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            callerRuns.increment();
+            callerRunsPolicy.rejectedExecution(task, pool);
+        });
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setKeepAliveSeconds(60);
+        return executor;
+    }
 }
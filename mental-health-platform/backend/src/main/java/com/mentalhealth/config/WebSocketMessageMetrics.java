@@ -0,0 +1,59 @@
+package com.mentalhealth.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counts STOMP frames per direction and message type as {@code websocket.messages}.
+ * Counters are registered up front and looked up by enum, so counting a frame
+ * allocates nothing.
+ */
+@Component
+public class WebSocketMessageMetrics {
+    private final ChannelInterceptor inbound;
+    private final ChannelInterceptor outbound;
+    
+    public WebSocketMessageMetrics(MeterRegistry meterRegistry) {
+        this.inbound = new CountingInterceptor(meterRegistry, "inbound");
+        this.outbound = new CountingInterceptor(meterRegistry, "outbound");
+    }
+    
+    public ChannelInterceptor inbound() {
+        return inbound;
+    }
+    
+    public ChannelInterceptor outbound() {
+        return outbound;
+    }
+    
+    private static final class CountingInterceptor implements ChannelInterceptor {
+        private final Map<SimpMessageType, Counter> counters = new EnumMap<>(SimpMessageType.class);
+        
+        CountingInterceptor(MeterRegistry meterRegistry, String direction) {
+            for (SimpMessageType type : SimpMessageType.values()) {
+                counters.put(type, Counter.builder("websocket.messages")
+                        .description("STOMP frames passing through the client channels")
+                        .tag("direction", direction)
+                        .tag("type", type.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry));
+            }
+        }
+        
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+            counters.get(type != null ? type : SimpMessageType.OTHER).increment();
+            return message;
+        }
+    }
+}
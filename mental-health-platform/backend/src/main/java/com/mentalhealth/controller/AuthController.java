@@ -3,10 +3,17 @@ package com.mentalhealth.controller;
 import com.mentalhealth.dto.AuthResponse;
 import com.mentalhealth.dto.LoginRequest;
 import com.mentalhealth.dto.MessageResponse;
+import com.mentalhealth.dto.RefreshTokenRequest;
 import com.mentalhealth.dto.RegisterRequest;
+import com.mentalhealth.security.InvalidTokenException;
+import com.mentalhealth.security.LoginThrottle;
+import com.mentalhealth.security.PasswordHashingUnavailableException;
 import com.mentalhealth.service.AuthService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -15,12 +22,15 @@ import org.springframework.web.bind.annotation.*;
 @RequiredArgsConstructor
 public class AuthController {
     private final AuthService authService;
+    private final LoginThrottle loginThrottle;
     
     @PostMapping("/register")
     public ResponseEntity<?> register(@Valid @RequestBody RegisterRequest request) {
         try {
             AuthResponse response = authService.register(request);
             return ResponseEntity.ok(response);
+        } catch (PasswordHashingUnavailableException e) {
+            return serviceUnavailable(e);
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(MessageResponse.error(e.getMessage()));
@@ -28,13 +38,52 @@ public class AuthController {
     }
     
     @PostMapping("/login")
-    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request) {
+    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
+        // Shed over-limit attempts before any user lookup or BCrypt work
+        if (!loginThrottle.tryAcquire(httpRequest.getRemoteAddr(), request.getUsernameOrEmail())) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .body(MessageResponse.error("Too many login attempts, please try again later"));
+        }
+        
         try {
             AuthResponse response = authService.login(request);
+            loginThrottle.recordVerified(true);
             return ResponseEntity.ok(response);
+        } catch (PasswordHashingUnavailableException e) {
+            return serviceUnavailable(e);
         } catch (Exception e) {
+            loginThrottle.recordVerified(false);
             return ResponseEntity.badRequest()
                     .body(MessageResponse.error("Invalid credentials"));
         }
     }
+    
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@Valid @RequestBody RefreshTokenRequest request) {
+        try {
+            AuthResponse response = authService.refresh(request.getRefreshToken());
+            return ResponseEntity.ok(response);
+        } catch (InvalidTokenException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(MessageResponse.error(e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/logout")
+    public ResponseEntity<MessageResponse> logout(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestBody(required = false) RefreshTokenRequest request) {
+        String accessToken = authorization != null && authorization.startsWith("Bearer ")
+                ? authorization.substring(7)
+                : null;
+        authService.logout(accessToken, request != null ? request.getRefreshToken() : null);
+        return ResponseEntity.ok(MessageResponse.success("Logged out"));
+    }
+    
+    private ResponseEntity<MessageResponse> serviceUnavailable(PasswordHashingUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(MessageResponse.error(e.getMessage()));
+    }
 }
@@ -1,18 +1,25 @@
 package com.mentalhealth.controller;
 
-import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.dto.ChatHistoryResponse;
+import com.mentalhealth.dto.ChatSessionSummary;
+import com.mentalhealth.dto.Presence;
+import com.mentalhealth.dto.UnreadCount;
 import com.mentalhealth.model.ChatSession;
 import com.mentalhealth.security.UserPrincipal;
 import com.mentalhealth.service.ChatService;
+import com.mentalhealth.service.TypingIndicators;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +27,7 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class ChatController {
     private final ChatService chatService;
+    private final TypingIndicators typingIndicators;
     
     @PostMapping("/api/chat/session")
     @ResponseBody
@@ -30,18 +38,64 @@ public class ChatController {
     
     @GetMapping("/api/chat/session/{sessionId}")
     @ResponseBody
-    public ResponseEntity<ChatSession> getSession(@PathVariable String sessionId) {
-        ChatSession session = chatService.getSession(sessionId);
+    public ResponseEntity<ChatSession> getSession(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @PathVariable String sessionId) {
+        ChatSession session = chatService.getSession(sessionId, currentUser.getId());
         return ResponseEntity.ok(session);
     }
     
+    @GetMapping("/api/chat/session/{sessionId}/messages")
+    @ResponseBody
+    public ResponseEntity<ChatHistoryResponse> getMessages(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @PathVariable String sessionId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit) {
+        ChatHistoryResponse history = chatService.getMessages(sessionId, currentUser.getId(), before, after, limit);
+        return ResponseEntity.ok(history);
+    }
+    
     @GetMapping("/api/chat/sessions")
     @ResponseBody
-    public ResponseEntity<List<ChatSession>> getUserSessions(@AuthenticationPrincipal UserPrincipal currentUser) {
-        List<ChatSession> sessions = chatService.getUserSessions(currentUser.getId());
+    public ResponseEntity<List<ChatSessionSummary>> getUserSessions(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        List<ChatSessionSummary> sessions = chatService.getUserSessions(currentUser.getId(), page, size);
         return ResponseEntity.ok(sessions);
     }
     
+    @GetMapping("/api/chat/session/{sessionId}/presence")
+    @ResponseBody
+    public ResponseEntity<List<Presence>> getPresence(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @PathVariable String sessionId) {
+        return ResponseEntity.ok(chatService.getPresence(sessionId, currentUser.getId()));
+    }
+    
+    @GetMapping("/api/chat/unread")
+    @ResponseBody
+    public ResponseEntity<UnreadCount> getUnreadCount(@AuthenticationPrincipal UserPrincipal currentUser) {
+        return ResponseEntity.ok(chatService.getUnreadCount(currentUser.getId()));
+    }
+    
+    // Marks every message up to seq as read; receipts are written in batches
+    @PostMapping("/api/chat/session/{sessionId}/read")
+    @ResponseBody
+    public ResponseEntity<Void> markRead(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @PathVariable String sessionId,
+            @RequestParam long seq) {
+        try {
+            chatService.markRead(sessionId, currentUser.getId(), seq);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+    
     @PostMapping("/api/chat/session/{sessionId}/end")
     @ResponseBody
     public ResponseEntity<ChatSession> endSession(
@@ -53,15 +107,36 @@ public class ChatController {
         return ResponseEntity.ok(session);
     }
     
+    // The sender is the user authenticated on CONNECT; sender fields in the payload are ignored
     @MessageMapping("/chat/{sessionId}/send")
     public void sendMessage(
             @DestinationVariable String sessionId,
-            @Payload Map<String, String> message) {
-        chatService.sendMessage(
-                sessionId,
-                message.get("senderId"),
-                message.get("content"),
-                message.get("senderRole")
-        );
+            @Payload Map<String, String> message,
+            Principal principal) {
+        UserPrincipal sender = (UserPrincipal) ((Authentication) principal).getPrincipal();
+        chatService.sendMessage(sessionId, sender.getId(), message.get("content"));
+    }
+    
+    @MessageMapping("/chat/{sessionId}/read")
+    public void markRead(
+            @DestinationVariable String sessionId,
+            @Payload Map<String, Long> receipt,
+            Principal principal) {
+        UserPrincipal reader = (UserPrincipal) ((Authentication) principal).getPrincipal();
+        Long seq = receipt.get("seq");
+        if (seq != null) {
+            chatService.markRead(sessionId, reader.getId(), seq);
+        }
+    }
+    
+    // Relayed to the other participant only; never stored
+    @MessageMapping("/chat/{sessionId}/typing")
+    public void typing(
+            @DestinationVariable String sessionId,
+            @Payload Map<String, Boolean> event,
+            Principal principal,
+            SimpMessageHeaderAccessor headers) {
+        UserPrincipal typist = (UserPrincipal) ((Authentication) principal).getPrincipal();
+        typingIndicators.update(sessionId, typist.getId(), headers.getSessionId(), Boolean.TRUE.equals(event.get("typing")));
     }
 }
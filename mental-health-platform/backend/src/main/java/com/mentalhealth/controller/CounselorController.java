@@ -0,0 +1,30 @@
+package com.mentalhealth.controller;
+
+import com.mentalhealth.dto.CounselorStatus;
+import com.mentalhealth.security.UserPrincipal;
+import com.mentalhealth.service.CounselorScheduler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/counselor")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('COUNSELOR')")
+public class CounselorController {
+    private final CounselorScheduler counselorScheduler;
+    
+    @GetMapping("/status")
+    public ResponseEntity<CounselorStatus> getStatus(@AuthenticationPrincipal UserPrincipal currentUser) {
+        return ResponseEntity.ok(counselorScheduler.getStatus(currentUser.getId()));
+    }
+    
+    @PutMapping("/availability")
+    public ResponseEntity<CounselorStatus> setAvailability(
+            @AuthenticationPrincipal UserPrincipal currentUser,
+            @RequestParam boolean available) {
+        return ResponseEntity.ok(counselorScheduler.setAvailability(currentUser.getId(), available));
+    }
+}
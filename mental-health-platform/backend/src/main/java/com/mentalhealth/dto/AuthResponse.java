@@ -14,6 +14,10 @@ import java.util.Set;
 public class AuthResponse {
     private String token;
     
+    private String refreshToken;
+    
+    private Long expiresIn; // access token lifetime in seconds
+    
     @Builder.Default
     private String type = "Bearer";
     
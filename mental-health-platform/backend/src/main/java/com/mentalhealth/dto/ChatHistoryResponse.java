@@ -0,0 +1,21 @@
+package com.mentalhealth.dto;
+
+import com.mentalhealth.model.ChatMessage;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatHistoryResponse {
+    private List<ChatMessage> messages; // oldest first
+    
+    private Boolean hasMore; // more messages exist past this page in the direction requested
+    
+    private Long latestSeq; // seq of the newest message in the session, 0 if there is none
+}
@@ -0,0 +1,43 @@
+package com.mentalhealth.dto;
+
+import com.mentalhealth.model.ChatSession;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSessionSummary {
+    private String id;
+    private String userId;
+    private String counselorId;
+    private ChatSession.SessionStatus status;
+    private LocalDateTime createdAt;
+    private LocalDateTime endedAt;
+    private Integer rating;
+    private String lastMessagePreview;
+    private LocalDateTime lastMessageAt;
+    private Long messageCount;
+    private Long unreadCount; // for the participant who asked
+    
+    public static ChatSessionSummary of(ChatSession session, String viewerId) {
+        return ChatSessionSummary.builder()
+                .id(session.getId())
+                .userId(session.getUserId())
+                .counselorId(session.getCounselorId())
+                .status(session.getStatus())
+                .createdAt(session.getCreatedAt())
+                .endedAt(session.getEndedAt())
+                .rating(session.getRating())
+                .lastMessagePreview(session.getLastMessagePreview())
+                .lastMessageAt(session.getLastMessageAt())
+                .messageCount(session.getMessageCount() != null ? session.getMessageCount() : 0L)
+                .unreadCount(session.unreadCount(viewerId))
+                .build();
+    }
+}
@@ -0,0 +1,18 @@
+package com.mentalhealth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CounselorStatus {
+    private String counselorId;
+    private Boolean available;
+    private Integer activeSessions;
+    private Integer maxSessions;
+    private Integer waitingSessions; // sessions queued for any counselor
+}
@@ -0,0 +1,15 @@
+package com.mentalhealth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Presence {
+    private String userId;
+    private Boolean online; // at least one live WebSocket connection
+}
@@ -0,0 +1,16 @@
+package com.mentalhealth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadReceipt {
+    private String sessionId;
+    private String userId; // participant who read
+    private Long seq; // every message up to and including this seq is read
+}
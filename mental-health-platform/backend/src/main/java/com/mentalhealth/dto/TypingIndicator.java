@@ -0,0 +1,16 @@
+package com.mentalhealth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TypingIndicator {
+    private String sessionId;
+    private String userId;
+    private Boolean typing; // clients treat a start as stopped if it is not repeated within a few seconds
+}
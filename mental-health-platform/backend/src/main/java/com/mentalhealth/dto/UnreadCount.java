@@ -0,0 +1,15 @@
+package com.mentalhealth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnreadCount {
+    private Long total; // unread messages across all of the participant's sessions
+    private Integer sessions; // sessions with at least one unread message
+}
@@ -4,6 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 
@@ -11,10 +15,19 @@ import java.time.LocalDateTime;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@Document(collection = "chat_messages")
+@CompoundIndex(name = "session_seq", def = "{'sessionId': 1, 'seq': 1}", unique = true)
 public class ChatMessage {
+    @Id
+    private String id;
+    
+    private String sessionId;
+    
+    private Long seq; // 1-based position within the session, allocated from ChatSession.messageCount
+    
     private String senderId;
     
-    private String senderRole; // USER or COUNSELOR
+    private String senderRole; // USER, COUNSELOR or SYSTEM
     
     private String content;
     
@@ -23,6 +36,8 @@ public class ChatMessage {
     @Builder.Default
     private LocalDateTime timestamp = LocalDateTime.now();
     
+    // Derived from the recipient's read marker when history is loaded, never stored
+    @Transient
     @Builder.Default
     private Boolean isRead = false;
     
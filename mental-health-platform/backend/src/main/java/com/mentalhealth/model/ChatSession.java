@@ -6,18 +6,24 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "chat_sessions")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_created", def = "{'userId': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "counselor_created", def = "{'counselorId': 1, 'createdAt': -1}")
+})
 public class ChatSession {
     @Id
     private String id;
@@ -28,8 +34,18 @@ public class ChatSession {
     @Indexed
     private String counselorId;
     
+    // Messages live in chat_messages; this is the seq of the newest one
     @Builder.Default
-    private List<ChatMessage> messages = new ArrayList<>();
+    private Long messageCount = 0L;
+    
+    // Summary of the newest message, updated in the same write that allocates its seq
+    private String lastMessagePreview;
+    
+    private LocalDateTime lastMessageAt;
+    
+    // Participant id -> highest seq they have read; unread = messageCount - lastReadSeq
+    @Builder.Default
+    private Map<String, Long> lastReadSeq = new HashMap<>();
     
     private SessionStatus status;
     
@@ -42,6 +58,12 @@ public class ChatSession {
     
     private String feedback;
     
+    public long unreadCount(String participantId) {
+        long count = messageCount != null ? messageCount : 0L;
+        long lastRead = lastReadSeq != null ? lastReadSeq.getOrDefault(participantId, 0L) : 0L;
+        return Math.max(0, count - lastRead);
+    }
+    
     public enum SessionStatus {
         ACTIVE,
         ENDED,
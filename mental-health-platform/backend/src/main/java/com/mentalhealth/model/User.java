@@ -42,6 +42,9 @@ public class User {
     
     private Boolean active = true;
     
+    // Counselors only: whether they take new chat sessions (null counts as available)
+    private Boolean availableForChat;
+    
     @CreatedDate
     private LocalDateTime createdAt;
     
@@ -0,0 +1,28 @@
+package com.mentalhealth.repository;
+
+import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.security.MessageCipher;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replaces a message's plaintext with ciphertext in the document about to be written, on
+ * every save and insert path including bulk inserts. The entity keeps its plaintext, so the
+ * message can still be broadcast after it is stored.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatMessageEncryptionCallback implements BeforeSaveCallback<ChatMessage> {
+    private final MessageCipher messageCipher;
+    
+    @Override
+    public ChatMessage onBeforeSave(ChatMessage message, Document document, String collection) {
+        Object content = document.remove("content");
+        if (content != null) {
+            document.put("encryptedContent", messageCipher.encrypt((String) content, message.getSessionId()));
+        }
+        return message;
+    }
+}
@@ -0,0 +1,21 @@
+package com.mentalhealth.repository;
+
+import com.mentalhealth.model.ChatMessage;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Every history query is a range scan on the unique (sessionId, seq) index
+@Repository
+public interface ChatMessageRepository extends MongoRepository<ChatMessage, String> {
+    List<ChatMessage> findBySessionIdOrderBySeqDesc(String sessionId, Limit limit);
+    
+    List<ChatMessage> findBySessionIdAndSeqLessThanOrderBySeqDesc(String sessionId, long before, Limit limit);
+    
+    List<ChatMessage> findBySessionIdAndSeqGreaterThanOrderBySeqAsc(String sessionId, long after, Limit limit);
+    
+    // Both bounds exclusive ({$gt: after, $lt: before})
+    List<ChatMessage> findBySessionIdAndSeqBetweenOrderBySeqAsc(String sessionId, long after, long before, Limit limit);
+}
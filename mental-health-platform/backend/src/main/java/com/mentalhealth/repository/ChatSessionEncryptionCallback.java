@@ -0,0 +1,39 @@
+package com.mentalhealth.repository;
+
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.security.MessageCipher;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a session's last message preview encrypted in the database and in plaintext on
+ * loaded entities. Updates that set the preview directly encrypt it themselves.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatSessionEncryptionCallback
+        implements BeforeSaveCallback<ChatSession>, AfterConvertCallback<ChatSession> {
+    private static final String PREVIEW = "lastMessagePreview";
+    
+    private final MessageCipher messageCipher;
+    
+    @Override
+    public ChatSession onBeforeSave(ChatSession session, Document document, String collection) {
+        Object preview = document.get(PREVIEW);
+        if (preview != null) {
+            document.put(PREVIEW, messageCipher.encrypt((String) preview, session.getId()));
+        }
+        return session;
+    }
+    
+    @Override
+    public ChatSession onAfterConvert(ChatSession session, Document document, String collection) {
+        if (session.getLastMessagePreview() != null) {
+            session.setLastMessagePreview(messageCipher.decrypt(session.getLastMessagePreview(), session.getId()));
+        }
+        return session;
+    }
+}
@@ -1,19 +1,30 @@
 package com.mentalhealth.repository;
 
 import com.mentalhealth.model.ChatSession;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ChatSessionRepository extends MongoRepository<ChatSession, String> {
+public interface ChatSessionRepository extends MongoRepository<ChatSession, String>, ChatSessionRepositoryCustom {
     List<ChatSession> findByUserIdOrderByCreatedAtDesc(String userId);
     
+    // Sessions the user takes part in, as client or as counselor
+    List<ChatSession> findByUserIdOrCounselorIdOrderByCreatedAtDesc(String userId, String counselorId, Pageable pageable);
+    
     List<ChatSession> findByCounselorIdOrderByCreatedAtDesc(String counselorId);
     
     List<ChatSession> findByStatus(ChatSession.SessionStatus status);
     
+    List<ChatSession> findByStatusOrderByCreatedAtAsc(ChatSession.SessionStatus status);
+    
+    List<ChatSession> findByStatusIn(Collection<ChatSession.SessionStatus> statuses);
+    
     Optional<ChatSession> findByUserIdAndStatus(String userId, ChatSession.SessionStatus status);
+    
+    Optional<ChatSession> findFirstByUserIdAndStatusIn(String userId, Collection<ChatSession.SessionStatus> statuses);
 }
@@ -0,0 +1,71 @@
+package com.mentalhealth.repository;
+
+import com.mentalhealth.model.ChatSession;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Single-document atomic updates on chat sessions, so callers never read-modify-write
+ * the whole session.
+ */
+public interface ChatSessionRepositoryCustom {
+    
+    /**
+     * Atomically reserves {@code count} consecutive message sequence numbers for the
+     * session and returns the first one, or empty if the session does not exist.
+     */
+    OptionalLong reserveMessageSeqs(String sessionId, int count);
+    
+    /**
+     * Allocates the seq for a new message and updates the session's last-message summary
+     * in the same write, then moves the sender's read marker up to that seq. Returns the
+     * seq, or empty if the session does not exist or does not {@link #acceptsMessageAt take}
+     * the message.
+     */
+    OptionalLong appendMessage(String sessionId, String senderId, String preview, LocalDateTime sentAt);
+    
+    /**
+     * Ends the session if it belongs to {@code userId} and is still active or pending; empty
+     * otherwise, so only one caller ever sees a given session end.
+     */
+    Optional<ChatSession> endSession(String sessionId, String userId, Integer rating, String feedback);
+    
+    /**
+     * Ends those of the given sessions that are still active and have had no message since
+     * {@code idleSince}, in one write, and returns exactly the sessions this call ended.
+     */
+    List<ChatSession> endIdleSessions(Collection<String> sessionIds, LocalDateTime idleSince);
+    
+    /**
+     * Gives a pending session to {@code counselorId} and makes it active; empty if the
+     * session is no longer pending.
+     */
+    Optional<ChatSession> assignCounselor(String sessionId, String counselorId);
+    
+    /** Number of active sessions per counselor id. */
+    Map<String, Long> countActiveSessionsByCounselor();
+    
+    /**
+     * Sessions of the participant, as user or counselor, with messages past their read
+     * marker. Only the counters are loaded, so badge counts never touch messages.
+     */
+    List<ChatSession> findWithUnread(String participantId);
+    
+    /**
+     * Sessions that take a message sent at {@code sentAt}: open ones, and ended ones only for
+     * messages from before they ended, such as a queued write or the idle notice.
+     */
+    static Criteria acceptsMessageAt(LocalDateTime sentAt) {
+        return new Criteria().orOperator(
+                where("status").in(ChatSession.SessionStatus.ACTIVE, ChatSession.SessionStatus.PENDING),
+                where("endedAt").gte(sentAt));
+    }
+}
@@ -0,0 +1,150 @@
+package com.mentalhealth.repository;
+
+import com.mentalhealth.model.ChatSession;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+@RequiredArgsConstructor
+public class ChatSessionRepositoryCustomImpl implements ChatSessionRepositoryCustom {
+    private final MongoOperations mongoOperations;
+    
+    @Override
+    public OptionalLong reserveMessageSeqs(String sessionId, int count) {
+        Query query = new Query(where("_id").is(sessionId));
+        query.fields().include("messageCount");
+        
+        ChatSession updated = mongoOperations.findAndModify(
+                query,
+                new Update().inc("messageCount", count),
+                FindAndModifyOptions.options().returnNew(true),
+                ChatSession.class);
+        
+        if (updated == null) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(updated.getMessageCount() - count + 1);
+    }
+    
+    @Override
+    public OptionalLong appendMessage(String sessionId, String senderId, String preview, LocalDateTime sentAt) {
+        Query query = new Query(where("_id").is(sessionId).andOperator(ChatSessionRepositoryCustom.acceptsMessageAt(sentAt)));
+        query.fields().include("messageCount");
+        
+        Update update = new Update()
+                .inc("messageCount", 1)
+                .set("lastMessagePreview", preview)
+                .set("lastMessageAt", sentAt);
+        
+        ChatSession updated = mongoOperations.findAndModify(
+                query, update, FindAndModifyOptions.options().returnNew(true), ChatSession.class);
+        if (updated == null) {
+            return OptionalLong.empty();
+        }
+        
+        long seq = updated.getMessageCount();
+        if (senderId != null) {
+            // $max: a concurrent newer send from the same participant must not be undone
+            mongoOperations.updateFirst(
+                    new Query(where("_id").is(sessionId)),
+                    new Update().max("lastReadSeq." + senderId, seq),
+                    ChatSession.class);
+        }
+        return OptionalLong.of(seq);
+    }
+    
+    @Override
+    public Optional<ChatSession> endSession(String sessionId, String userId, Integer rating, String feedback) {
+        Update update = new Update()
+                .set("status", ChatSession.SessionStatus.ENDED)
+                .set("endedAt", LocalDateTime.now())
+                .set("rating", rating)
+                .set("feedback", feedback);
+        
+        return Optional.ofNullable(mongoOperations.findAndModify(
+                new Query(where("_id").is(sessionId).and("userId").is(userId)
+                        .and("status").in(ChatSession.SessionStatus.ACTIVE, ChatSession.SessionStatus.PENDING)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                ChatSession.class));
+    }
+    
+    @Override
+    public List<ChatSession> endIdleSessions(Collection<String> sessionIds, LocalDateTime idleSince) {
+        Criteria idle = new Criteria().orOperator(
+                where("lastMessageAt").lt(idleSince),
+                where("lastMessageAt").is(null).and("createdAt").lt(idleSince));
+        Query query = new Query(new Criteria().andOperator(
+                where("_id").in(sessionIds).and("status").is(ChatSession.SessionStatus.ACTIVE), idle));
+        
+        // Millisecond precision, as stored, so the stamp finds the sessions this write ended
+        LocalDateTime endedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        if (mongoOperations.updateMulti(query, new Update()
+                .set("status", ChatSession.SessionStatus.ENDED)
+                .set("endedAt", endedAt), ChatSession.class).getModifiedCount() == 0) {
+            return List.of();
+        }
+        return mongoOperations.find(
+                new Query(where("_id").in(sessionIds)
+                        .and("status").is(ChatSession.SessionStatus.ENDED)
+                        .and("endedAt").is(endedAt)),
+                ChatSession.class);
+    }
+    
+    @Override
+    public Optional<ChatSession> assignCounselor(String sessionId, String counselorId) {
+        Update update = new Update()
+                .set("counselorId", counselorId)
+                .set("status", ChatSession.SessionStatus.ACTIVE);
+        
+        return Optional.ofNullable(mongoOperations.findAndModify(
+                new Query(where("_id").is(sessionId).and("status").is(ChatSession.SessionStatus.PENDING)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                ChatSession.class));
+    }
+    
+    @Override
+    public Map<String, Long> countActiveSessionsByCounselor() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(where("status").is(ChatSession.SessionStatus.ACTIVE).and("counselorId").ne(null)),
+                Aggregation.group("counselorId").count().as("sessions"));
+        
+        Map<String, Long> loads = new HashMap<>();
+        for (Document row : mongoOperations.aggregate(aggregation, ChatSession.class, Document.class)) {
+            loads.put(row.getString("_id"), ((Number) row.get("sessions")).longValue());
+        }
+        return loads;
+    }
+    
+    @Override
+    public List<ChatSession> findWithUnread(String participantId) {
+        String lastRead = "lastReadSeq." + participantId;
+        Criteria participant = new Criteria().orOperator(
+                where("userId").is(participantId), where("counselorId").is(participantId));
+        Criteria unread = Criteria.expr(ComparisonOperators.valueOf("messageCount")
+                .greaterThan(ConditionalOperators.ifNull(lastRead).then(0)));
+        
+        Query query = new Query(new Criteria().andOperator(participant, unread));
+        query.fields().include("userId", "counselorId", "messageCount", lastRead);
+        return mongoOperations.find(query, ChatSession.class);
+    }
+}
@@ -4,6 +4,7 @@ import com.mentalhealth.model.User;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.List;
 
@@ -20,4 +21,6 @@ public interface UserRepository extends MongoRepository<User, String> {
     Boolean existsByEmail(String email);
     
     List<User> findByRolesContaining(User.Role role);
+    
+    List<User> findByActiveFalseAndUpdatedAtAfter(LocalDateTime since);
 }
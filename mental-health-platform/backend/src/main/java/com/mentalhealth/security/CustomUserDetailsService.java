@@ -1,35 +1,188 @@
 package com.mentalhealth.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.mentalhealth.model.User;
 import com.mentalhealth.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolves users for login and for JWT-authenticated requests.
+ *
+ * <p>Both lookups sit behind bounded, expiring caches. Each missing key is loaded once,
+ * so a burst of requests for the same cold user costs a single Mongo read.
+ * {@link UserChangeListener} evicts entries when a user is saved on this node; changes
+ * made elsewhere become visible after at most the configured TTL.
+ */
 @Service
-@RequiredArgsConstructor
-public class CustomUserDetailsService implements UserDetailsService {
+public class CustomUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
     private final UserRepository userRepository;
     
+    private final PrincipalCache byId;
+    private final PrincipalCache byLogin;
+    
+    public CustomUserDetailsService(UserRepository userRepository,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${app.security.user-cache.maximum-size:10000}") long maximumSize,
+                                    @Value("${app.security.user-cache.ttl:60s}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.byId = new PrincipalCache(meterRegistry, "users.byId", maximumSize, ttl);
+        this.byLogin = new PrincipalCache(meterRegistry, "users.byLogin", maximumSize, ttl);
+    }
+    
     @Override
     @Transactional
     public UserDetails loadUserByUsername(String usernameOrEmail) throws UsernameNotFoundException {
-        User user = userRepository.findByUsernameOrEmail(usernameOrEmail, usernameOrEmail)
-                .orElseThrow(() -> new UsernameNotFoundException(
-                        "User not found with username or email: " + usernameOrEmail
-                ));
-        
-        return UserPrincipal.create(user);
+        return byLogin.load(usernameOrEmail, key -> {
+            User user = userRepository.findByUsernameOrEmail(key, key)
+                    .orElseThrow(() -> new UsernameNotFoundException(
+                            "User not found with username or email: " + key
+                    ));
+            
+            return UserPrincipal.create(user);
+        });
     }
     
     @Transactional
     public UserDetails loadUserById(String id) {
-        User user = userRepository.findById(id)
-                .orElseThrow(() -> new UsernameNotFoundException("User not found with id: " + id));
+        return byId.load(id, key -> {
+            User user = userRepository.findById(key)
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found with id: " + key));
+            
+            return UserPrincipal.create(user);
+        });
+    }
+    
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        UserPrincipal principal = (UserPrincipal) userDetails;
+        User user = userRepository.findById(principal.getId())
+                .orElseThrow(() -> new UsernameNotFoundException("User not found with id: " + principal.getId()));
         
-        return UserPrincipal.create(user);
+        user.setPassword(newPassword);
+        // The save evicts this user's cache entries through UserChangeListener
+        return UserPrincipal.create(userRepository.save(user));
+    }
+    
+    public void evict(User user) {
+        byId.invalidate(user.getId(), user.getId());
+        // Login entries are dropped by id too, in case the username or email itself changed
+        byLogin.invalidate(user.getId(), user.getUsername(), user.getEmail());
+    }
+    
+    /**
+     * One lookup's cache. Also remembers which keys each user id is cached under, so a user's
+     * entries are dropped without scanning the cache.
+     *
+     * <p>Loads are single-flight. The Mongo read runs outside any lock (unlike {@code Cache.get},
+     * which loads inside a map bin lock) so a virtual thread waiting on it never pins its
+     * carrier; concurrent callers for the same key wait on the first caller's future. An
+     * invalidation marks the loads in flight, and a marked load takes its result back out of
+     * the cache, since it may have read the user before the change.
+     */
+    private static final class PrincipalCache {
+        private final Cache<String, UserPrincipal> cache;
+        private final Map<String, Load> inFlight = new ConcurrentHashMap<>();
+        private final Map<String, Set<String>> keysByUserId = new ConcurrentHashMap<>();
+        
+        PrincipalCache(MeterRegistry meterRegistry, String name, long maximumSize, Duration ttl) {
+            this.cache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(ttl)
+                    .<String, UserPrincipal>evictionListener((key, principal, cause) -> unindex(key, principal))
+                    .recordStats()
+                    .build(), name);
+        }
+        
+        UserPrincipal load(String key, Function<String, UserPrincipal> loader) {
+            UserPrincipal cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return cached;
+            }
+            
+            Load flight = new Load();
+            Load existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                try {
+                    return existing.result.join();
+                } catch (CompletionException ex) {
+                    throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+                }
+            }
+            
+            try {
+                UserPrincipal principal = loader.apply(key);
+                cache.put(key, principal);
+                index(key, principal);
+                // Checked after the put: invalidate() marks loads before it clears the cache
+                if (flight.invalidated && cache.asMap().remove(key, principal)) {
+                    unindex(key, principal);
+                }
+                flight.result.complete(principal);
+                return principal;
+            } catch (RuntimeException ex) {
+                flight.result.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                inFlight.remove(key, flight);
+            }
+        }
+        
+        void invalidate(String userId, String... keys) {
+            // Only keys being read right now are in flight, so marking them all is cheap
+            inFlight.values().forEach(load -> load.invalidated = true);
+            
+            if (userId != null) {
+                Set<String> cachedKeys = keysByUserId.remove(userId);
+                if (cachedKeys != null) {
+                    cache.invalidateAll(cachedKeys);
+                }
+            }
+            for (String key : keys) {
+                if (key != null) {
+                    cache.invalidate(key);
+                }
+            }
+        }
+        
+        private void index(String key, UserPrincipal principal) {
+            keysByUserId.compute(principal.getId(), (id, keys) -> {
+                Set<String> updated = keys != null ? keys : new HashSet<>();
+                updated.add(key);
+                return updated;
+            });
+        }
+        
+        private void unindex(String key, UserPrincipal principal) {
+            if (key == null || principal == null) {
+                return;
+            }
+            keysByUserId.computeIfPresent(principal.getId(), (id, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+    
+    private static final class Load {
+        private final CompletableFuture<UserPrincipal> result = new CompletableFuture<>();
+        private volatile boolean invalidated;
     }
 }
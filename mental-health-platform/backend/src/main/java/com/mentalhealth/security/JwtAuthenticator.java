@@ -0,0 +1,53 @@
+package com.mentalhealth.security;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Resolves an access token to its user, shared by the HTTP filter and the STOMP CONNECT
+ * interceptor so both apply the same revocation and account checks.
+ */
+@Component
+@RequiredArgsConstructor
+public class JwtAuthenticator {
+    private final JwtTokenProvider tokenProvider;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final UserRevocationList revocationList;
+    private final RevokedTokenStore revokedTokens;
+    
+    /** The enabled user the token belongs to, or null if the token is missing, invalid or revoked. */
+    public UserDetails authenticate(String token) {
+        JwtVerification verification = StringUtils.hasText(token) ? tokenProvider.verify(token) : null;
+        
+        UserDetails userDetails = verification != null && verification.isValid()
+                ? resolvePrincipal(verification)
+                : null;
+        
+        return userDetails != null && userDetails.isEnabled() ? userDetails : null;
+    }
+    
+    /** The token from an {@code Authorization: Bearer ...} header value, or null. */
+    public static String bearerToken(String header) {
+        if (StringUtils.hasText(header) && header.startsWith("Bearer ")) {
+            return header.substring(7);
+        }
+        return null;
+    }
+    
+    private UserDetails resolvePrincipal(JwtVerification verification) {
+        if (!verification.isAccessToken()
+                || revokedTokens.isRevoked(verification.getTokenId())
+                || revocationList.isRevoked(verification.getSubject(), verification.getIssuedAt())) {
+            return null;
+        }
+        
+        // Stateless mode: the token already carries username and roles, skip the users lookup
+        if (tokenProvider.isStatelessPrincipal() && verification.hasEmbeddedPrincipal()) {
+            return UserPrincipal.fromToken(verification);
+        }
+        
+        return customUserDetailsService.loadUserById(verification.getSubject());
+    }
+}
@@ -3,72 +3,196 @@ package com.mentalhealth.security;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.io.Decoders;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import javax.crypto.SecretKey;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Component
+@RequiredArgsConstructor
 public class JwtTokenProvider {
     private static final Logger logger = LoggerFactory.getLogger(JwtTokenProvider.class);
     
+    static final String ROLES_CLAIM = "roles";
+    static final String USERNAME_CLAIM = "username";
+    static final String TOKEN_TYPE_CLAIM = "token_type";
+    static final String ACCESS_TOKEN = "access";
+    static final String REFRESH_TOKEN = "refresh";
+    
     @Value("${jwt.secret}")
     private String jwtSecret;
     
     @Value("${jwt.expiration}")
     private long jwtExpiration;
     
-    private SecretKey getSigningKey() {
+    @Value("${jwt.refresh-expiration:604800000}")
+    private long refreshExpiration;
+    
+    // Embed username and roles so the filter can build the principal without a users lookup
+    @Value("${jwt.stateless-principal:false}")
+    private boolean statelessPrincipal;
+    
+    private final MeterRegistry meterRegistry;
+    
+    // Built once: decoding the secret and building a parser per request is pure overhead
+    private SecretKey signingKey;
+    private JwtParser jwtParser;
+    
+    // One timer per outcome, registered up front so recording never allocates
+    private Timer validTimer;
+    private Map<JwtVerification.FailureReason, Timer> failureTimers;
+    
+    @PostConstruct
+    void init() {
         byte[] keyBytes = Decoders.BASE64.decode(jwtSecret);
-        return Keys.hmacShaKeyFor(keyBytes);
+        signingKey = Keys.hmacShaKeyFor(keyBytes);
+        jwtParser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+        
+        validTimer = verificationTimer("valid");
+        failureTimers = new EnumMap<>(JwtVerification.FailureReason.class);
+        for (JwtVerification.FailureReason reason : JwtVerification.FailureReason.values()) {
+            failureTimers.put(reason, verificationTimer(reason.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+    
+    private Timer verificationTimer(String result) {
+        return Timer.builder("auth.jwt.verify")
+                .description("Time to parse and verify a JWT")
+                .tag("result", result)
+                .register(meterRegistry);
     }
     
     public String generateToken(Authentication authentication) {
-        UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
-        
+        return generateToken((UserPrincipal) authentication.getPrincipal());
+    }
+    
+    public String generateToken(UserPrincipal userPrincipal) {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpiration);
         
+        JwtBuilder builder = Jwts.builder()
+                .subject(userPrincipal.getId())
+                .id(UUID.randomUUID().toString())
+                .claim(TOKEN_TYPE_CLAIM, ACCESS_TOKEN)
+                .issuedAt(now)
+                .expiration(expiryDate);
+        
+        if (statelessPrincipal) {
+            builder.claim(USERNAME_CLAIM, userPrincipal.getUsername())
+                    .claim(ROLES_CLAIM, userPrincipal.getAuthorities().stream()
+                            .map(GrantedAuthority::getAuthority)
+                            .toList());
+        }
+        
+        return builder.signWith(signingKey).compact();
+    }
+    
+    // Refresh tokens carry no roles: they are only accepted by /api/auth/refresh
+    public String generateRefreshToken(UserPrincipal userPrincipal) {
+        Date now = new Date();
+        Date expiryDate = new Date(now.getTime() + refreshExpiration);
+        
         return Jwts.builder()
                 .subject(userPrincipal.getId())
+                .id(UUID.randomUUID().toString())
+                .claim(TOKEN_TYPE_CLAIM, REFRESH_TOKEN)
                 .issuedAt(now)
                 .expiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
     
-    public String getUserIdFromToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        
-        return claims.getSubject();
+    public boolean isStatelessPrincipal() {
+        return statelessPrincipal;
+    }
+    
+    public long getJwtExpiration() {
+        return jwtExpiration;
+    }
+    
+    public long getRefreshExpiration() {
+        return refreshExpiration;
     }
     
-    public boolean validateToken(String authToken) {
+    /**
+     * Parses and verifies the token exactly once. Never throws for a bad token;
+     * the reason is reported on the returned result instead.
+     */
+    public JwtVerification verify(String token) {
+        long start = System.nanoTime();
+        JwtVerification result = parse(token);
+        Timer timer = result.isValid() ? validTimer : failureTimers.get(result.getFailureReason());
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+    
+    private JwtVerification parse(String token) {
+        if (!StringUtils.hasText(token)) {
+            return JwtVerification.invalid(JwtVerification.FailureReason.EMPTY);
+        }
+        
+        // Failures are debug only: they are counted by auth.jwt.verify and can be attacker driven
         try {
-            Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(authToken);
-            return true;
-        } catch (SecurityException ex) {
-            logger.error("Invalid JWT signature");
+            Claims claims = jwtParser.parseSignedClaims(token).getPayload();
+            return JwtVerification.builder()
+                    .valid(true)
+                    .subject(claims.getSubject())
+                    .tokenId(claims.getId())
+                    .tokenType(claims.get(TOKEN_TYPE_CLAIM, String.class))
+                    .username(claims.get(USERNAME_CLAIM, String.class))
+                    .roles(readRoles(claims))
+                    .issuedAt(claims.getIssuedAt() != null ? claims.getIssuedAt().toInstant() : null)
+                    .expiresAt(claims.getExpiration() != null ? claims.getExpiration().toInstant() : null)
+                    .build();
+        } catch (io.jsonwebtoken.security.SecurityException ex) {
+            logger.debug("Invalid JWT signature");
+            return JwtVerification.invalid(JwtVerification.FailureReason.INVALID_SIGNATURE);
         } catch (MalformedJwtException ex) {
-            logger.error("Invalid JWT token");
+            logger.debug("Invalid JWT token");
+            return JwtVerification.invalid(JwtVerification.FailureReason.MALFORMED);
         } catch (ExpiredJwtException ex) {
-            logger.error("Expired JWT token");
+            logger.debug("Expired JWT token");
+            return JwtVerification.invalid(JwtVerification.FailureReason.EXPIRED);
         } catch (UnsupportedJwtException ex) {
-            logger.error("Unsupported JWT token");
-        } catch (IllegalArgumentException ex) {
-            logger.error("JWT claims string is empty");
+            logger.debug("Unsupported JWT token");
+            return JwtVerification.invalid(JwtVerification.FailureReason.UNSUPPORTED);
+        } catch (JwtException | IllegalArgumentException ex) {
+            logger.debug("JWT claims string is empty or invalid");
+            return JwtVerification.invalid(JwtVerification.FailureReason.MALFORMED);
+        }
+    }
+    
+    private Set<String> readRoles(Claims claims) {
+        Object roles = claims.get(ROLES_CLAIM);
+        if (!(roles instanceof Collection<?> values)) {
+            return Collections.emptySet();
+        }
+        
+        Set<String> result = new HashSet<>(values.size());
+        for (Object value : values) {
+            result.add(String.valueOf(value));
         }
-        return false;
+        return Collections.unmodifiableSet(result);
     }
 }
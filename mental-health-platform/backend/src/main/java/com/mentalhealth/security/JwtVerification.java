@@ -0,0 +1,62 @@
+package com.mentalhealth.security;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of a single parse-and-verify pass over a JWT.
+ */
+@Value
+@Builder(access = AccessLevel.PACKAGE)
+public class JwtVerification {
+    boolean valid;
+    
+    String subject;
+    
+    String tokenId;
+    
+    String tokenType; // null on tokens minted before refresh tokens existed, treated as access
+    
+    String username; // only present on tokens minted in stateless principal mode
+    
+    @Builder.Default
+    Set<String> roles = Collections.emptySet();
+    
+    Instant issuedAt;
+    
+    Instant expiresAt;
+    
+    FailureReason failureReason;
+    
+    public static JwtVerification invalid(FailureReason reason) {
+        return builder()
+                .valid(false)
+                .failureReason(reason)
+                .build();
+    }
+    
+    public boolean hasEmbeddedPrincipal() {
+        return username != null && !roles.isEmpty();
+    }
+    
+    public boolean isAccessToken() {
+        return tokenType == null || JwtTokenProvider.ACCESS_TOKEN.equals(tokenType);
+    }
+    
+    public boolean isRefreshToken() {
+        return JwtTokenProvider.REFRESH_TOKEN.equals(tokenType);
+    }
+    
+    public enum FailureReason {
+        INVALID_SIGNATURE,
+        MALFORMED,
+        EXPIRED,
+        UNSUPPORTED,
+        EMPTY
+    }
+}
@@ -0,0 +1,111 @@
+package com.mentalhealth.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-IP and per-account token buckets for {@code /api/auth/login}, checked before any
+ * BCrypt work or user lookup happens.
+ *
+ * <p>Buckets live in size-bounded caches that forget idle keys, so a credential-stuffing
+ * run over many usernames cannot grow memory without bound.
+ */
+@Component
+public class LoginThrottle {
+    private final Cache<String, Bucket> ipBuckets;
+    private final Cache<String, Bucket> accountBuckets;
+    
+    private final long ipInterval;
+    private final long ipTolerance;
+    private final long accountInterval;
+    private final long accountTolerance;
+    
+    private final Counter rejectedByIp;
+    private final Counter rejectedByAccount;
+    private final Counter verifiedSuccess;
+    private final Counter verifiedFailure;
+    
+    public LoginThrottle(MeterRegistry meterRegistry,
+                         @Value("${app.security.login-throttle.ip.capacity:20}") int ipCapacity,
+                         @Value("${app.security.login-throttle.ip.per-minute:20}") int ipPerMinute,
+                         @Value("${app.security.login-throttle.account.capacity:5}") int accountCapacity,
+                         @Value("${app.security.login-throttle.account.per-minute:5}") int accountPerMinute,
+                         @Value("${app.security.login-throttle.maximum-keys:100000}") long maximumKeys,
+                         @Value("${app.security.login-throttle.idle-expiry:10m}") Duration idleExpiry) {
+        this.ipInterval = TimeUnit.MINUTES.toNanos(1) / ipPerMinute;
+        this.ipTolerance = ipInterval * (ipCapacity - 1);
+        this.accountInterval = TimeUnit.MINUTES.toNanos(1) / accountPerMinute;
+        this.accountTolerance = accountInterval * (accountCapacity - 1);
+        
+        this.ipBuckets = newCache(maximumKeys, idleExpiry);
+        this.accountBuckets = newCache(maximumKeys, idleExpiry);
+        
+        this.rejectedByIp = Counter.builder("auth.login.rejected").tag("scope", "ip").register(meterRegistry);
+        this.rejectedByAccount = Counter.builder("auth.login.rejected").tag("scope", "account").register(meterRegistry);
+        this.verifiedSuccess = Counter.builder("auth.login.verified").tag("result", "success").register(meterRegistry);
+        this.verifiedFailure = Counter.builder("auth.login.verified").tag("result", "failure").register(meterRegistry);
+    }
+    
+    /**
+     * Takes one token from the caller's IP bucket and then from the account bucket.
+     * Returns false, without touching the account bucket, if the IP is already over its limit.
+     */
+    public boolean tryAcquire(String clientIp, String usernameOrEmail) {
+        long now = System.nanoTime();
+        
+        if (!ipBuckets.get(clientIp, key -> new Bucket()).tryAcquire(now, ipInterval, ipTolerance)) {
+            rejectedByIp.increment();
+            return false;
+        }
+        
+        String account = usernameOrEmail.trim().toLowerCase(Locale.ROOT);
+        if (!accountBuckets.get(account, key -> new Bucket()).tryAcquire(now, accountInterval, accountTolerance)) {
+            rejectedByAccount.increment();
+            return false;
+        }
+        return true;
+    }
+    
+    public void recordVerified(boolean success) {
+        (success ? verifiedSuccess : verifiedFailure).increment();
+    }
+    
+    private static Cache<String, Bucket> newCache(long maximumKeys, Duration idleExpiry) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumKeys)
+                .expireAfterAccess(idleExpiry)
+                .build();
+    }
+    
+    /**
+     * Token bucket in its GCRA form: a single "theoretical arrival time" updated by CAS.
+     * A request is allowed while that time is no more than {@code tolerance} ahead of now,
+     * which is the same as having at least one token left in a bucket of
+     * {@code tolerance / interval + 1} tokens refilled every {@code interval}.
+     */
+    static final class Bucket {
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+        
+        boolean tryAcquire(long now, long interval, long tolerance) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long start = current == Long.MIN_VALUE ? now : Math.max(current, now);
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(current, start + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
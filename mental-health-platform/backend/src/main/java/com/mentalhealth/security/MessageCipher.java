@@ -0,0 +1,214 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.model.ChatMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * AES-256-GCM for chat content at rest. Values are stored as
+ * {@code v1:<key id>:<base64 of iv, ciphertext and tag>}, with the chat session id as
+ * associated data, so a value copied into another session does not decrypt.
+ *
+ * <p>Keys are derived once, as the SHA-256 of each configured secret. Ciphers, each with its
+ * own random generator, are pooled rather than kept per thread: with virtual threads no thread
+ * is reused, and building a Cipher and seeding a DRBG per call costs far more than the call. A
+ * call borrows one and returns it, so a message costs one init with a fresh IV and one
+ * doFinal. Calls never block, so few are borrowed at once; the pool keeps up to four per
+ * CPU, and a call that finds it empty builds another. New values use
+ * {@code app.encryption.key}; the {@code previous-keys} are only used to read values written
+ * before a rotation.
+ */
+@Component
+public class MessageCipher {
+    private static final String VERSION = "v1:";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_BYTES = TAG_BITS / 8;
+    
+    private static final int POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+    
+    private final BlockingQueue<PooledCipher> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final SecretKey currentKey;
+    private final String currentPrefix;
+    private final Map<String, SecretKey> keys = new HashMap<>();
+    
+    public MessageCipher(@Value("${app.encryption.key}") String key,
+                         @Value("${app.encryption.key-id:k1}") String keyId,
+                         @Value("${app.encryption.previous-keys:}") List<String> previousKeys) {
+        for (String entry : previousKeys) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalStateException("app.encryption.previous-keys entries must be <key id>=<secret>");
+            }
+            keys.put(checkKeyId(entry.substring(0, separator).trim()), deriveKey(entry.substring(separator + 1)));
+        }
+        checkKeyId(keyId);
+        this.currentKey = deriveKey(key);
+        this.currentPrefix = VERSION + keyId + ":";
+        keys.put(keyId, currentKey);
+    }
+    
+    public String encrypt(String plaintext, String sessionId) {
+        if (plaintext == null) {
+            return null;
+        }
+        byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[IV_BYTES + input.length + TAG_BYTES];
+        seal(input, sessionId, output, 0);
+        return currentPrefix + Base64.getEncoder().encodeToString(output);
+    }
+    
+    /**
+     * Binary counterpart of {@link #encrypt(String, String)}, for chat content passing through
+     * MongoDB in another form, e.g. broker messages shared between nodes. The key id prefix is
+     * kept as ASCII in front of the raw IV, ciphertext and tag.
+     */
+    public byte[] encrypt(byte[] plaintext, String associatedData) {
+        byte[] prefix = currentPrefix.getBytes(StandardCharsets.US_ASCII);
+        byte[] output = new byte[prefix.length + IV_BYTES + plaintext.length + TAG_BYTES];
+        System.arraycopy(prefix, 0, output, 0, prefix.length);
+        seal(plaintext, associatedData, output, prefix.length);
+        return output;
+    }
+    
+    public byte[] decrypt(byte[] stored, String associatedData) {
+        int keyIdEnd = VERSION.length();
+        while (keyIdEnd < stored.length && stored[keyIdEnd] != ':') {
+            keyIdEnd++;
+        }
+        String version = new String(stored, 0, Math.min(VERSION.length(), stored.length), StandardCharsets.US_ASCII);
+        SecretKey key = !version.equals(VERSION) || keyIdEnd >= stored.length ? null
+                : keys.get(new String(stored, VERSION.length(), keyIdEnd - VERSION.length(), StandardCharsets.US_ASCII));
+        if (key == null) {
+            throw new IllegalStateException("Chat content was encrypted with an unknown key");
+        }
+        PooledCipher pooled = borrow();
+        try {
+            return open(pooled.cipher, key, stored, keyIdEnd + 1, associatedData);
+        } finally {
+            pool.offer(pooled);
+        }
+    }
+    
+    /** Plaintext of a stored value; values written before encryption was enabled are returned as they are. */
+    public String decrypt(String stored, String sessionId) {
+        if (stored == null || !stored.startsWith(VERSION)) {
+            return stored;
+        }
+        PooledCipher pooled = borrow();
+        try {
+            return decrypt(pooled.cipher, stored, sessionId);
+        } finally {
+            pool.offer(pooled);
+        }
+    }
+    
+    /** Decrypts a page of messages in place, moving {@code encryptedContent} into {@code content}. */
+    public void decryptAll(List<ChatMessage> messages) {
+        PooledCipher pooled = borrow();
+        try {
+            for (ChatMessage message : messages) {
+                if (message.getEncryptedContent() != null) {
+                    message.setContent(decrypt(pooled.cipher, message.getEncryptedContent(), message.getSessionId()));
+                    message.setEncryptedContent(null);
+                }
+            }
+        } finally {
+            pool.offer(pooled);
+        }
+    }
+    
+    /** Prefix of every value encrypted with the current key; anything else is due for re-encryption. */
+    public String getCurrentPrefix() {
+        return currentPrefix;
+    }
+    
+    private String decrypt(Cipher cipher, String stored, String sessionId) {
+        int keyIdEnd = stored.indexOf(':', VERSION.length());
+        SecretKey key = keyIdEnd < 0 ? null : keys.get(stored.substring(VERSION.length(), keyIdEnd));
+        if (key == null) {
+            throw new IllegalStateException("Chat content was encrypted with an unknown key");
+        }
+        
+        byte[] data = Base64.getDecoder().decode(stored.substring(keyIdEnd + 1));
+        return new String(open(cipher, key, data, 0, sessionId), StandardCharsets.UTF_8);
+    }
+    
+    // Writes IV, ciphertext and tag into output from offset on
+    private void seal(byte[] input, String associatedData, byte[] output, int offset) {
+        PooledCipher pooled = borrow();
+        try {
+            pooled.random.nextBytes(pooled.iv);
+            System.arraycopy(pooled.iv, 0, output, offset, IV_BYTES);
+            pooled.cipher.init(Cipher.ENCRYPT_MODE, currentKey, new GCMParameterSpec(TAG_BITS, pooled.iv));
+            pooled.cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+            pooled.cipher.doFinal(input, 0, input.length, output, offset + IV_BYTES);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Could not encrypt chat content", ex);
+        } finally {
+            pool.offer(pooled); // dropped if the pool is full
+        }
+    }
+    
+    private PooledCipher borrow() {
+        PooledCipher pooled = pool.poll();
+        return pooled != null ? pooled : new PooledCipher();
+    }
+    
+    private static byte[] open(Cipher cipher, SecretKey key, byte[] data, int offset, String associatedData) {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, offset, IV_BYTES));
+            cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+            return cipher.doFinal(data, offset + IV_BYTES, data.length - offset - IV_BYTES);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Could not decrypt chat content", ex);
+        }
+    }
+    
+    private static String checkKeyId(String keyId) {
+        if (keyId.isEmpty() || keyId.contains(":")) {
+            throw new IllegalStateException("Encryption key ids must be non-empty and must not contain ':'");
+        }
+        return keyId;
+    }
+    
+    private static SecretKey deriveKey(String secret) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(hash, "AES");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+    
+    private static final class PooledCipher {
+        private final Cipher cipher;
+        private final SecureRandom random;
+        private final byte[] iv = new byte[IV_BYTES];
+        
+        PooledCipher() {
+            try {
+                this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                // Its own generator per instance, instead of the shared, synchronized default one
+                this.random = SecureRandom.getInstance("DRBG");
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("AES-GCM is not available", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.mentalhealth.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Revoked token ids (JWT {@code jti}), checked on every authenticated request.
+ *
+ * <p>Lookups first hit a pair of Bloom filters, so the common "not revoked" answer costs
+ * a few bit reads and no allocation. Only a Bloom hit consults the exact map, which removes
+ * false positives. The filters rotate every {@code jwt.refresh-expiration}: an id lives in
+ * the current generation and then the previous one, which covers the lifetime of any token
+ * we issue. The exact map is purged as tokens expire and is capped; if the cap is hit,
+ * Bloom hits are trusted until the dropped ids would have expired (fail closed).
+ * Revocations are kept in memory on this node only and are lost on restart.
+ */
+@Component
+public class RevokedTokenStore {
+    private final int bitCount;
+    private final int hashCount;
+    private final long rotationMillis;
+    private final int maxExactEntries;
+    
+    private final Map<String, Long> exact = new ConcurrentHashMap<>();
+    private final ReentrantLock rotationLock = new ReentrantLock();
+    
+    private volatile Generation current;
+    private volatile Generation previous;
+    private volatile long nextRotation;
+    private volatile long trustBloomUntil;
+    
+    public RevokedTokenStore(@Value("${jwt.revocation.bloom-bits:1048576}") int bitCount,
+                             @Value("${jwt.revocation.bloom-hashes:5}") int hashCount,
+                             @Value("${jwt.revocation.max-exact-entries:100000}") int maxExactEntries,
+                             @Value("${jwt.refresh-expiration:604800000}") long rotationMillis) {
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.maxExactEntries = maxExactEntries;
+        this.rotationMillis = rotationMillis;
+        this.current = new Generation(bitCount);
+        this.previous = new Generation(bitCount);
+        this.nextRotation = System.currentTimeMillis() + rotationMillis;
+    }
+    
+    public void revoke(String tokenId, Instant expiresAt) {
+        if (tokenId == null) {
+            return;
+        }
+        rotateIfDue();
+        
+        long expiresAtSecond = expiresAtSecond(expiresAt);
+        current.add(tokenId, hashCount);
+        if (exact.size() < maxExactEntries) {
+            exact.put(tokenId, expiresAtSecond);
+        } else {
+            trustBloomUntil = Math.max(trustBloomUntil, expiresAtSecond);
+        }
+    }
+    
+    /**
+     * Revokes the id unless it already is, atomically: of several concurrent calls with the
+     * same id exactly one returns {@code true}. Used to spend a refresh token once.
+     */
+    public boolean consume(String tokenId, Instant expiresAt) {
+        if (tokenId == null || isRevoked(tokenId)) {
+            return false;
+        }
+        
+        long expiresAtSecond = expiresAtSecond(expiresAt);
+        if (exact.size() < maxExactEntries) {
+            if (exact.putIfAbsent(tokenId, expiresAtSecond) != null) {
+                return false;
+            }
+            current.add(tokenId, hashCount);
+            return true;
+        }
+        
+        // Past the cap only the Bloom filters remember the id, so serialize check and add
+        synchronized (this) {
+            if (isRevoked(tokenId)) {
+                return false;
+            }
+            current.add(tokenId, hashCount);
+            trustBloomUntil = Math.max(trustBloomUntil, expiresAtSecond);
+            return true;
+        }
+    }
+    
+    public boolean isRevoked(String tokenId) {
+        if (tokenId == null) {
+            return false;
+        }
+        rotateIfDue();
+        
+        if (!current.mightContain(tokenId, hashCount) && !previous.mightContain(tokenId, hashCount)) {
+            return false;
+        }
+        return exact.containsKey(tokenId) || Instant.now().getEpochSecond() < trustBloomUntil;
+    }
+    
+    public int exactSize() {
+        return exact.size();
+    }
+    
+    @Scheduled(fixedDelayString = "${jwt.revocation.purge-interval:60000}")
+    public void purgeExpired() {
+        long now = Instant.now().getEpochSecond();
+        exact.values().removeIf(expiresAt -> expiresAt < now);
+        rotateIfDue();
+    }
+    
+    private long expiresAtSecond(Instant expiresAt) {
+        return expiresAt != null
+                ? expiresAt.getEpochSecond()
+                : Instant.now().plusMillis(rotationMillis).getEpochSecond();
+    }
+    
+    private void rotateIfDue() {
+        if (System.currentTimeMillis() < nextRotation || !rotationLock.tryLock()) {
+            return;
+        }
+        try {
+            if (System.currentTimeMillis() >= nextRotation) {
+                previous = current;
+                current = new Generation(bitCount);
+                nextRotation = System.currentTimeMillis() + rotationMillis;
+            }
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+    
+    private static final class Generation {
+        private final AtomicLongArray words;
+        private final int bits;
+        
+        Generation(int bits) {
+            this.bits = bits;
+            this.words = new AtomicLongArray((bits + 63) >>> 6);
+        }
+        
+        void add(String key, int hashCount) {
+            int h1 = key.hashCode();
+            int h2 = secondaryHash(key);
+            for (int i = 0; i < hashCount; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                long mask = 1L << (bit & 63);
+                words.getAndAccumulate(bit >>> 6, mask, (word, m) -> word | m);
+            }
+        }
+        
+        boolean mightContain(String key, int hashCount) {
+            int h1 = key.hashCode();
+            int h2 = secondaryHash(key);
+            for (int i = 0; i < hashCount; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // FNV-1a, independent enough from String.hashCode for double hashing
+        private static int secondaryHash(String key) {
+            int hash = 0x811c9dc5;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x01000193;
+            }
+            return hash | 1;
+        }
+    }
+}
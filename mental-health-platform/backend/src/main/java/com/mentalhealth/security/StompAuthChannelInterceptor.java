@@ -0,0 +1,114 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.service.ActiveChatSessionRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import java.security.Principal;
+
+/**
+ * Authenticates a STOMP connection once, on CONNECT, and authorizes later frames against
+ * that identity.
+ *
+ * <p>CONNECT must carry {@code Authorization: Bearer <access token>}. The resolved user is
+ * set as the message user, which Spring keeps for the WebSocket session and attaches to
+ * every later frame, so nothing after CONNECT parses a token or loads a user. Chat topics
+ * can only be subscribed to by the session's participants, presence topics by the user and
+ * those who share an open chat session with them, and frames may only be sent to
+ * application destinations, where ChatService checks the sender against the session.
+ */
+@Component
+@RequiredArgsConstructor
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+    private static final String CHAT_TOPIC = "/topic/chat/{sessionId}/**";
+    private static final String PRESENCE_TOPIC = "/topic/presence/{userId}";
+    
+    private final JwtAuthenticator authenticator;
+    private final ActiveChatSessionRegistry activeSessions;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message; // heartbeat
+        }
+        
+        switch (accessor.getCommand()) {
+            case CONNECT -> accessor.setUser(authenticate(accessor));
+            case SUBSCRIBE -> authorizeSubscribe(accessor);
+            case SEND -> authorizeSend(accessor);
+            default -> {
+            }
+        }
+        return message;
+    }
+    
+    private Authentication authenticate(StompHeaderAccessor accessor) {
+        UserDetails user = authenticator.authenticate(
+                JwtAuthenticator.bearerToken(accessor.getFirstNativeHeader("Authorization")));
+        if (user == null) {
+            throw new BadCredentialsException("Invalid or missing access token");
+        }
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+    
+    private void authorizeSubscribe(StompHeaderAccessor accessor) {
+        UserPrincipal user = requireUser(accessor);
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            throw new AccessDeniedException("Missing destination");
+        }
+        
+        // Resolved to this connection's own user queues
+        if (destination.startsWith("/user/")) {
+            return;
+        }
+        if (pathMatcher.match(CHAT_TOPIC, destination)) {
+            String sessionId = pathMatcher.extractUriTemplateVariables(CHAT_TOPIC, destination).get("sessionId");
+            boolean participant = activeSessions.find(sessionId)
+                    .map(session -> session.hasParticipant(user.getId()))
+                    .orElse(false);
+            if (participant) {
+                return;
+            }
+        }
+        // Your own presence, or that of someone you are in an open chat with
+        if (pathMatcher.match(PRESENCE_TOPIC, destination)) {
+            String userId = pathMatcher.extractUriTemplateVariables(PRESENCE_TOPIC, destination).get("userId");
+            if (userId.equals(user.getId()) || activeSessions.shareOpenSession(user.getId(), userId)) {
+                return;
+            }
+        }
+        throw new AccessDeniedException("Cannot subscribe to " + destination);
+    }
+    
+    private void authorizeSend(StompHeaderAccessor accessor) {
+        requireUser(accessor);
+        String destination = accessor.getDestination();
+        // Straight to a broker destination would skip the application's checks
+        if (destination == null || !destination.startsWith("/app/")) {
+            throw new AccessDeniedException("Cannot send to " + destination);
+        }
+    }
+    
+    private static UserPrincipal requireUser(StompHeaderAccessor accessor) {
+        Principal user = accessor.getUser();
+        if (user instanceof Authentication authentication
+                && authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal;
+        }
+        throw new AccessDeniedException("Not authenticated");
+    }
+}
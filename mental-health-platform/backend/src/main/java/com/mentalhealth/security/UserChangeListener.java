@@ -0,0 +1,29 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reacts to {@code UserRepository.save} so security state cached on this node
+ * follows account changes immediately.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserChangeListener extends AbstractMongoEventListener<User> {
+    private final UserRevocationList revocationList;
+    private final CustomUserDetailsService userDetailsService;
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<User> event) {
+        User user = event.getSource();
+        
+        userDetailsService.evict(user);
+        
+        if (Boolean.FALSE.equals(user.getActive())) {
+            revocationList.revoke(user.getId());
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class UserPrincipal implements UserDetails {
     private String email;
     private String password;
     private Collection<? extends GrantedAuthority> authorities;
+    private boolean active;
     
     public static UserPrincipal create(User user) {
         Collection<GrantedAuthority> authorities = user.getRoles().stream()
@@ -29,7 +30,24 @@ public class UserPrincipal implements UserDetails {
                 user.getUsername(),
                 user.getEmail(),
                 user.getPassword(),
-                authorities
+                authorities,
+                !Boolean.FALSE.equals(user.getActive())
+        );
+    }
+    
+    // Principal rebuilt from a stateless-mode token; carries no email or password hash
+    public static UserPrincipal fromToken(JwtVerification verification) {
+        Collection<GrantedAuthority> authorities = verification.getRoles().stream()
+                .map(SimpleGrantedAuthority::new)
+                .collect(Collectors.toList());
+        
+        return new UserPrincipal(
+                verification.getSubject(),
+                verification.getUsername(),
+                null,
+                null,
+                authorities,
+                true
         );
     }
     
@@ -65,6 +83,6 @@ public class UserPrincipal implements UserDetails {
     
     @Override
     public boolean isEnabled() {
-        return true;
+        return active;
     }
 }
@@ -0,0 +1,77 @@
+package com.mentalhealth.security;
+
+import com.mentalhealth.model.User;
+import com.mentalhealth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory list of users whose outstanding tokens must no longer be honoured.
+ *
+ * <p>An entry maps a user id to the epoch second at which it was revoked; any token
+ * issued at or before that second is rejected. Entries are dropped once every token
+ * they could match has expired, refresh tokens included, so the map only holds users
+ * revoked within the last {@code jwt.refresh-expiration}. Deactivations made on other
+ * nodes are picked up by polling, which bounds how long a disabled account keeps working.
+ * Revocations made by {@link #revoke} itself, e.g. after a refresh token was reused, stay
+ * on this node and are lost on restart.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserRevocationList {
+    private static final Logger logger = LoggerFactory.getLogger(UserRevocationList.class);
+    
+    private final UserRepository userRepository;
+    private final JwtTokenProvider tokenProvider;
+    
+    private final Map<String, Long> revokedAt = new ConcurrentHashMap<>();
+    
+    private volatile LocalDateTime lastPoll;
+    
+    public void revoke(String userId) {
+        revokedAt.put(userId, Instant.now().getEpochSecond());
+    }
+    
+    public boolean isRevoked(String userId, Instant issuedAt) {
+        Long revokedSecond = revokedAt.get(userId);
+        if (revokedSecond == null) {
+            return false;
+        }
+        return issuedAt == null || issuedAt.getEpochSecond() <= revokedSecond;
+    }
+    
+    public int size() {
+        return revokedAt.size();
+    }
+    
+    @Scheduled(fixedDelayString = "${jwt.revocation.poll-interval:30000}")
+    public void refresh() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime since = lastPoll != null
+                ? lastPoll
+                : now.minusNanos(tokenProvider.getJwtExpiration() * 1_000_000L);
+        
+        try {
+            List<User> deactivated = userRepository.findByActiveFalseAndUpdatedAtAfter(since);
+            for (User user : deactivated) {
+                revoke(user.getId());
+            }
+            lastPoll = now;
+        } catch (Exception ex) {
+            logger.warn("Could not refresh user revocation list: {}", ex.getMessage());
+        }
+        
+        long oldestLive = Instant.now().getEpochSecond()
+                - Math.max(tokenProvider.getJwtExpiration(), tokenProvider.getRefreshExpiration()) / 1000;
+        revokedAt.values().removeIf(second -> second < oldestLive);
+    }
+}
@@ -0,0 +1,254 @@
+package com.mentalhealth.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.repository.ChatSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Open (active or pending) chat sessions by id, so the message path can check a session
+ * and its participants without reading it from the database.
+ *
+ * <p>Loaded while the context starts, before the web server accepts requests, and kept
+ * current by session creation, counselor assignment and session end. A session this node
+ * has not seen, e.g. one opened through another node, is read once and then kept; an id
+ * that turns out not to be open is remembered as such for {@code miss-ttl}, so repeated
+ * lookups of an unknown or ended session do not each cost a read. A
+ * session ended through another node is removed when {@link EndedChatSessions} hears of it,
+ * or at the latest when it comes due as idle and is found ended in the database.
+ *
+ * <p>Each session carries the time of its last activity (a message, or the counselor being
+ * assigned). Every session is on a hashed timer wheel at the time it would become idle, so
+ * finding idle sessions never scans the registry or the collection: a session whose entry
+ * comes due but which was active since is put back at its new deadline, which costs one
+ * reschedule per idle timeout while a chat is busy, not one per message.
+ */
+@Component
+public class ActiveChatSessionRegistry implements InitializingBean {
+    private static final Logger logger = LoggerFactory.getLogger(ActiveChatSessionRegistry.class);
+    
+    private static final List<ChatSession.SessionStatus> OPEN =
+            List.of(ChatSession.SessionStatus.ACTIVE, ChatSession.SessionStatus.PENDING);
+    
+    private final ChatSessionRepository chatSessionRepository;
+    private final ConcurrentHashMap<String, ActiveChatSession> sessions = new ConcurrentHashMap<>();
+    // Participant id -> ids of their open sessions
+    private final ConcurrentHashMap<String, Set<String>> byParticipant = new ConcurrentHashMap<>();
+    // Ids recently found not to be open
+    private final Cache<String, Boolean> notOpen;
+    
+    private final long idleTimeoutMillis;
+    private final HashedTimerWheel<String> idleTimer;
+    
+    public ActiveChatSessionRegistry(ChatSessionRepository chatSessionRepository,
+                                     @Value("${app.chat.idle.timeout:30m}") Duration idleTimeout,
+                                     @Value("${app.chat.idle.tick:1000}") long tickMillis,
+                                     @Value("${app.chat.idle.wheel-size:512}") int wheelSize,
+                                     @Value("${app.chat.registry.miss-ttl:5s}") Duration missTtl,
+                                     @Value("${app.chat.registry.miss-cache-size:10000}") long missCacheSize) {
+        this.chatSessionRepository = chatSessionRepository;
+        this.notOpen = Caffeine.newBuilder()
+                .maximumSize(missCacheSize)
+                .expireAfterWrite(missTtl)
+                .build();
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.idleTimer = new HashedTimerWheel<>(tickMillis, wheelSize);
+    }
+    
+    @Override
+    public void afterPropertiesSet() {
+        chatSessionRepository.findByStatusIn(OPEN).forEach(this::register);
+        logger.info("Loaded {} open chat sessions", sessions.size());
+    }
+    
+    /** The open session with this id, or empty if it does not exist or has ended. */
+    public Optional<ActiveChatSession> find(String sessionId) {
+        ActiveChatSession session = sessions.get(sessionId);
+        if (session != null) {
+            return Optional.of(session);
+        }
+        if (notOpen.getIfPresent(sessionId) != null) {
+            return Optional.empty();
+        }
+        Optional<ActiveChatSession> found = chatSessionRepository.findById(sessionId)
+                .filter(stored -> OPEN.contains(stored.getStatus()))
+                .map(this::register);
+        if (found.isEmpty()) {
+            notOpen.put(sessionId, Boolean.TRUE);
+        }
+        return found;
+    }
+    
+    /** The session if it is registered on this node; never reads the database. */
+    public Optional<ActiveChatSession> findRegistered(String sessionId) {
+        return Optional.ofNullable(sessions.get(sessionId));
+    }
+    
+    public ActiveChatSession register(ChatSession session) {
+        notOpen.invalidate(session.getId());
+        ActiveChatSession active = ActiveChatSession.of(session, lastActivity(session));
+        ActiveChatSession previous = sessions.put(active.id(), active);
+        if (previous != null) {
+            active.touch(previous.lastActivity().get()); // may be newer than the stored lastMessageAt
+            active.sequenced(previous.lastSeq().get());
+            unindex(previous);
+        } else {
+            idleTimer.schedule(active.id(), active.lastActivity().get() + idleTimeoutMillis);
+        }
+        index(active);
+        return active;
+    }
+    
+    /** Updates a session that is still registered, e.g. after a counselor was assigned; an ended one stays out. */
+    public void refresh(ChatSession session) {
+        ActiveChatSession refreshed = sessions.computeIfPresent(session.getId(), (id, current) -> {
+            unindex(current);
+            ActiveChatSession updated = ActiveChatSession.of(session, System.currentTimeMillis());
+            updated.sequenced(current.lastSeq().get());
+            return updated;
+        });
+        index(refreshed);
+    }
+    
+    /**
+     * Active sessions without activity for the idle timeout, as of {@code nowMillis}. They stay
+     * registered, and come up again one timeout later unless they are removed meanwhile. Called
+     * by one thread at a time.
+     */
+    public List<ActiveChatSession> pollIdle(long nowMillis) {
+        List<ActiveChatSession> idle = new ArrayList<>();
+        for (String sessionId : idleTimer.advance(nowMillis)) {
+            ActiveChatSession session = sessions.get(sessionId);
+            if (session == null) {
+                continue; // ended
+            }
+            long deadline = session.lastActivity().get() + idleTimeoutMillis;
+            if (deadline > nowMillis) {
+                idleTimer.schedule(sessionId, deadline);
+                continue;
+            }
+            // Pending sessions wait for a counselor, not for their user
+            if (session.status() == ChatSession.SessionStatus.ACTIVE) {
+                idle.add(session);
+            }
+            idleTimer.schedule(sessionId, nowMillis + idleTimeoutMillis);
+        }
+        return idle;
+    }
+    
+    public void remove(String sessionId) {
+        notOpen.put(sessionId, Boolean.TRUE);
+        unindex(sessions.remove(sessionId));
+    }
+    
+    /** Removes those of the sessions that no longer exist or have ended in the database. */
+    public void removeUnlessOpen(Collection<String> sessionIds) {
+        Set<String> open = new HashSet<>();
+        chatSessionRepository.findAllById(sessionIds).forEach(session -> {
+            if (OPEN.contains(session.getStatus())) {
+                open.add(session.getId());
+            }
+        });
+        for (String sessionId : sessionIds) {
+            if (!open.contains(sessionId)) {
+                remove(sessionId);
+            }
+        }
+    }
+    
+    /** Whether the two take part in the same open session, e.g. a user and their counselor. */
+    public boolean shareOpenSession(String participantId, String otherId) {
+        Set<String> sessionIds = byParticipant.get(participantId);
+        if (sessionIds == null) {
+            return false;
+        }
+        for (String sessionId : sessionIds) {
+            ActiveChatSession session = sessions.get(sessionId);
+            if (session != null && session.hasParticipant(otherId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void index(ActiveChatSession session) {
+        if (session == null) {
+            return;
+        }
+        for (String participantId : session.participants()) {
+            byParticipant.computeIfAbsent(participantId, id -> ConcurrentHashMap.newKeySet()).add(session.id());
+        }
+    }
+    
+    private void unindex(ActiveChatSession session) {
+        if (session == null) {
+            return;
+        }
+        for (String participantId : session.participants()) {
+            byParticipant.computeIfPresent(participantId, (id, sessionIds) -> {
+                sessionIds.remove(session.id());
+                return sessionIds.isEmpty() ? null : sessionIds;
+            });
+        }
+    }
+    
+    public int size() {
+        return sessions.size();
+    }
+    
+    private static long lastActivity(ChatSession session) {
+        LocalDateTime at = session.getLastMessageAt() != null ? session.getLastMessageAt() : session.getCreatedAt();
+        return at != null ? at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : System.currentTimeMillis();
+    }
+    
+    // lastActivity is epoch millis and lastSeq the newest seq sent through this node; both only move forward
+    public record ActiveChatSession(String id, String userId, String counselorId, ChatSession.SessionStatus status,
+                                    AtomicLong lastActivity, AtomicLong lastSeq) {
+        
+        static ActiveChatSession of(ChatSession session, long lastActivity) {
+            return new ActiveChatSession(session.getId(), session.getUserId(), session.getCounselorId(),
+                    session.getStatus(), new AtomicLong(lastActivity),
+                    new AtomicLong(session.getMessageCount() != null ? session.getMessageCount() : 0L));
+        }
+        
+        public void sequenced(long seq) {
+            lastSeq.accumulateAndGet(seq, Math::max);
+        }
+        
+        public void touch() {
+            touch(System.currentTimeMillis());
+        }
+        
+        void touch(long at) {
+            lastActivity.accumulateAndGet(at, Math::max);
+        }
+        
+        public boolean hasParticipant(String participantId) {
+            return participantId != null
+                    && (participantId.equals(userId) || participantId.equals(counselorId));
+        }
+        
+        public List<String> participants() {
+            return Stream.of(userId, counselorId).filter(Objects::nonNull).toList();
+        }
+    }
+}
@@ -6,9 +6,14 @@ import com.mentalhealth.dto.RegisterRequest;
 import com.mentalhealth.model.User;
 import com.mentalhealth.model.UserPreferences;
 import com.mentalhealth.repository.UserRepository;
+import com.mentalhealth.security.InvalidTokenException;
 import com.mentalhealth.security.JwtTokenProvider;
+import com.mentalhealth.security.JwtVerification;
+import com.mentalhealth.security.RevokedTokenStore;
 import com.mentalhealth.security.UserPrincipal;
+import com.mentalhealth.security.UserRevocationList;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -27,16 +32,10 @@ public class AuthService {
     private final PasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtTokenProvider tokenProvider;
+    private final RevokedTokenStore revokedTokens;
+    private final UserRevocationList revocationList;
     
     public AuthResponse register(RegisterRequest request) {
-        if (userRepository.existsByUsername(request.getUsername())) {
-            throw new RuntimeException("Username is already taken!");
-        }
-        
-        if (userRepository.existsByEmail(request.getEmail())) {
-            throw new RuntimeException("Email is already in use!");
-        }
-        
         User user = User.builder()
                 .username(request.getUsername())
                 .email(request.getEmail())
@@ -48,19 +47,15 @@ public class AuthService {
                 .active(true)
                 .build();
         
-        user = userRepository.save(user);
-        
-        Authentication authentication = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(
-                        request.getUsername(),
-                        request.getPassword()
-                )
-        );
-        
-        SecurityContextHolder.getContext().setAuthentication(authentication);
-        String jwt = tokenProvider.generateToken(authentication);
+        // The unique indexes on username and email do the uniqueness check in the same write
+        try {
+            user = userRepository.insert(user);
+        } catch (DuplicateKeyException e) {
+            throw new RuntimeException(duplicateFieldMessage(e));
+        }
         
-        return buildAuthResponse(user, jwt);
+        // Password was hashed above; no need to re-read the user and verify it again
+        return buildAuthResponse(user, UserPrincipal.create(user));
     }
     
     public AuthResponse login(LoginRequest request) {
@@ -72,22 +67,75 @@ public class AuthService {
         );
         
         SecurityContextHolder.getContext().setAuthentication(authentication);
-        String jwt = tokenProvider.generateToken(authentication);
         
         UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
         User user = userRepository.findById(userPrincipal.getId())
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
-        return buildAuthResponse(user, jwt);
+        return buildAuthResponse(user, userPrincipal);
+    }
+    
+    public AuthResponse refresh(String refreshToken) {
+        JwtVerification verification = tokenProvider.verify(refreshToken);
+        if (!verification.isValid() || !verification.isRefreshToken()) {
+            throw new InvalidTokenException("Invalid refresh token");
+        }
+        
+        if (revocationList.isRevoked(verification.getSubject(), verification.getIssuedAt())) {
+            throw new InvalidTokenException("Refresh token has been revoked");
+        }
+        
+        // Read the user directly so a deactivation is always seen at refresh time
+        User user = userRepository.findById(verification.getSubject())
+                .orElseThrow(() -> new InvalidTokenException("User not found"));
+        UserPrincipal userPrincipal = UserPrincipal.create(user);
+        if (!userPrincipal.isEnabled()) {
+            throw new InvalidTokenException("Account is disabled");
+        }
+        
+        // Rotate: each refresh token can be used once, even by concurrent requests
+        if (!revokedTokens.consume(verification.getTokenId(), verification.getExpiresAt())) {
+            // A rotated-out refresh token came back: assume it leaked and cut off the whole account
+            revocationList.revoke(verification.getSubject());
+            throw new InvalidTokenException("Refresh token has been revoked");
+        }
+        
+        return buildAuthResponse(user, userPrincipal);
+    }
+    
+    public void logout(String accessToken, String refreshToken) {
+        revokeQuietly(accessToken);
+        revokeQuietly(refreshToken);
+    }
+    
+    private void revokeQuietly(String token) {
+        if (token == null) {
+            return;
+        }
+        
+        JwtVerification verification = tokenProvider.verify(token);
+        if (verification.isValid()) {
+            revokedTokens.revoke(verification.getTokenId(), verification.getExpiresAt());
+        }
+    }
+    
+    private String duplicateFieldMessage(DuplicateKeyException e) {
+        String message = e.getMessage() != null ? e.getMessage() : "";
+        if (message.contains("index: email")) {
+            return "Email is already in use!";
+        }
+        return "Username is already taken!";
     }
     
-    private AuthResponse buildAuthResponse(User user, String token) {
+    private AuthResponse buildAuthResponse(User user, UserPrincipal userPrincipal) {
         Set<String> roles = user.getRoles().stream()
                 .map(Enum::name)
                 .collect(Collectors.toSet());
         
         return AuthResponse.builder()
-                .token(token)
+                .token(tokenProvider.generateToken(userPrincipal))
+                .refreshToken(tokenProvider.generateRefreshToken(userPrincipal))
+                .expiresIn(tokenProvider.getJwtExpiration() / 1000)
                 .id(user.getId())
                 .username(user.getUsername())
                 .email(user.getEmail())
@@ -0,0 +1,15 @@
+package com.mentalhealth.service;
+
+final class ChatMessagePreview {
+    static final int LENGTH = 120;
+    
+    private ChatMessagePreview() {
+    }
+    
+    static String of(String content) {
+        if (content == null || content.length() <= LENGTH) {
+            return content;
+        }
+        return content.substring(0, LENGTH) + "…";
+    }
+}
@@ -0,0 +1,16 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.model.ChatMessage;
+
+/**
+ * Assigns chat messages their per-session sequence number and persists them.
+ * Selected by {@code app.chat.persistence.mode}: {@code sync} (default) or {@code write-behind}.
+ */
+public interface ChatMessageStore {
+    
+    /**
+     * Sets the message's {@code seq} and persists it, either before returning or later in
+     * the background. Throws if the session does not exist or the store is overloaded.
+     */
+    ChatMessage append(ChatMessage message);
+}
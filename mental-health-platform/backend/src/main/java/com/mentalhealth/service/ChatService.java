@@ -1,58 +1,108 @@
 package com.mentalhealth.service;
 
+import com.mentalhealth.dto.ChatHistoryResponse;
+import com.mentalhealth.dto.ChatSessionSummary;
+import com.mentalhealth.dto.Presence;
+import com.mentalhealth.dto.ReadReceipt;
+import com.mentalhealth.dto.UnreadCount;
 import com.mentalhealth.model.ChatMessage;
 import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.repository.ChatMessageRepository;
 import com.mentalhealth.repository.ChatSessionRepository;
-import com.mentalhealth.repository.UserRepository;
+import com.mentalhealth.security.MessageCipher;
 import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ChatService {
+    private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
+    
+    private static final int MAX_HISTORY_PAGE = 200;
+    private static final int MAX_SESSIONS_PAGE = 100;
+    
     private final ChatSessionRepository chatSessionRepository;
-    private final UserRepository userRepository;
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatMessageStore messageStore;
+    private final CounselorScheduler counselorScheduler;
+    private final ActiveChatSessionRegistry activeSessions;
+    private final EndedChatSessions endedSessions;
+    private final MessageCipher messageCipher;
+    private final ReadReceiptBuffer readReceipts;
+    private final PresenceTracker presenceTracker;
     private final SimpMessagingTemplate messagingTemplate;
     
     public ChatSession createSession(String userId) {
-        // Check if user already has an active session
-        Optional<ChatSession> existingSession = chatSessionRepository
-                .findByUserIdAndStatus(userId, ChatSession.SessionStatus.ACTIVE);
+        // Check if user already has an active or waiting session
+        Optional<ChatSession> existingSession = chatSessionRepository.findFirstByUserIdAndStatusIn(
+                userId, List.of(ChatSession.SessionStatus.ACTIVE, ChatSession.SessionStatus.PENDING));
         
         if (existingSession.isPresent()) {
+            activeSessions.register(existingSession.get());
             return existingSession.get();
         }
         
-        // Find available counselor (simplified - in production, use proper matching logic)
-        String counselorId = findAvailableCounselor();
+        // Least-loaded available counselor; without one the session waits in the queue
+        String counselorId = counselorScheduler.acquire().orElse(null);
         
         ChatSession session = ChatSession.builder()
                 .userId(userId)
                 .counselorId(counselorId)
-                .status(ChatSession.SessionStatus.ACTIVE)
+                .status(counselorId != null ? ChatSession.SessionStatus.ACTIVE : ChatSession.SessionStatus.PENDING)
                 .build();
         
-        return chatSessionRepository.save(session);
+        try {
+            session = chatSessionRepository.save(session);
+        } catch (RuntimeException ex) {
+            if (counselorId != null) {
+                counselorScheduler.release(counselorId);
+            }
+            throw ex;
+        }
+        
+        // Registered before queueing, so an immediate assignment is not overwritten with PENDING
+        activeSessions.register(session);
+        if (counselorId == null) {
+            counselorScheduler.enqueue(session.getId());
+        }
+        return session;
     }
     
-    public ChatMessage sendMessage(String sessionId, String senderId, String content, String senderRole) {
-        ChatSession session = chatSessionRepository.findById(sessionId)
-                .orElseThrow(() -> new RuntimeException("Session not found"));
+    public ChatMessage sendMessage(String sessionId, String senderId, String content) {
+        ActiveChatSessionRegistry.ActiveChatSession session = activeSessions.find(sessionId)
+                .orElseThrow(() -> new RuntimeException("Session not found or ended"));
+        if (!session.hasParticipant(senderId)) {
+            throw new AccessDeniedException("Not a participant in this chat session");
+        }
+        session.touch();
         
         ChatMessage message = ChatMessage.builder()
+                .sessionId(sessionId)
                 .senderId(senderId)
-                .senderRole(senderRole)
+                .senderRole(senderId.equals(session.counselorId()) ? "COUNSELOR" : "USER")
                 .content(content)
                 .type(ChatMessage.MessageType.TEXT)
                 .build();
         
-        session.getMessages().add(message);
-        chatSessionRepository.save(session);
+        messageStore.append(message);
+        session.sequenced(message.getSeq());
         
         // Send message via WebSocket
         String destination = "/topic/chat/" + sessionId;
@@ -61,42 +111,204 @@ public class ChatService {
         return message;
     }
     
-    public ChatSession getSession(String sessionId) {
-        return chatSessionRepository.findById(sessionId)
+    public ChatSession getSession(String sessionId, String userId) {
+        ChatSession session = chatSessionRepository.findById(sessionId)
                 .orElseThrow(() -> new RuntimeException("Session not found"));
+        
+        if (!userId.equals(session.getUserId()) && !userId.equals(session.getCounselorId())) {
+            throw new AccessDeniedException("Not a participant in this chat session");
+        }
+        return readReceipts.applyPending(session);
+    }
+    
+    /**
+     * One page of history, oldest first. With {@code after} it walks forward from that seq
+     * (catching up after a reconnect), otherwise it returns the newest messages, optionally
+     * those older than {@code before}.
+     */
+    public ChatHistoryResponse getMessages(String sessionId, String userId, Long before, Long after, int limit) {
+        ChatSession session = getSession(sessionId, userId);
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        Limit fetch = Limit.of(pageSize + 1); // the extra row only tells us whether there is more
+        
+        List<ChatMessage> page;
+        boolean newestFirst = after == null;
+        if (after != null && before != null) {
+            page = chatMessageRepository.findBySessionIdAndSeqBetweenOrderBySeqAsc(sessionId, after, before, fetch);
+        } else if (after != null) {
+            page = chatMessageRepository.findBySessionIdAndSeqGreaterThanOrderBySeqAsc(sessionId, after, fetch);
+        } else if (before != null) {
+            page = chatMessageRepository.findBySessionIdAndSeqLessThanOrderBySeqDesc(sessionId, before, fetch);
+        } else {
+            page = chatMessageRepository.findBySessionIdOrderBySeqDesc(sessionId, fetch);
+        }
+        
+        boolean hasMore = page.size() > pageSize;
+        List<ChatMessage> messages = new ArrayList<>(hasMore ? page.subList(0, pageSize) : page);
+        if (newestFirst) {
+            Collections.reverse(messages);
+        }
+        messageCipher.decryptAll(messages);
+        setReadFlags(session, messages);
+        
+        return ChatHistoryResponse.builder()
+                .messages(messages)
+                .hasMore(hasMore)
+                .latestSeq(session.getMessageCount())
+                .build();
+    }
+    
+    public List<ChatSessionSummary> getUserSessions(String userId, int page, int size) {
+        Pageable pageable = PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, MAX_SESSIONS_PAGE)));
+        return chatSessionRepository.findByUserIdOrCounselorIdOrderByCreatedAtDesc(userId, userId, pageable)
+                .stream()
+                .map(session -> ChatSessionSummary.of(readReceipts.applyPending(session), userId))
+                .toList();
+    }
+    
+    /**
+     * Marks every message up to {@code seq} as read by the user. The marker is written with
+     * the next batch of receipts; the other participant is told straight away. A seq past the
+     * newest message is lowered to it, since a marker is never moved back.
+     */
+    public void markRead(String sessionId, String userId, long seq) {
+        if (seq < 1) {
+            throw new IllegalArgumentException("Invalid message seq");
+        }
+        long lastSeq;
+        Optional<ActiveChatSessionRegistry.ActiveChatSession> open = activeSessions.find(sessionId);
+        if (open.isEmpty()) {
+            lastSeq = messageCount(getSession(sessionId, userId)); // an ended session can still be read
+        } else if (!open.get().hasParticipant(userId)) {
+            throw new AccessDeniedException("Not a participant in this chat session");
+        } else {
+            lastSeq = open.get().lastSeq().get();
+            if (seq > lastSeq) {
+                // Possibly sent through another node; the stored count has the final say
+                lastSeq = Math.max(lastSeq, chatSessionRepository.findById(sessionId).map(this::messageCount).orElse(0L));
+            }
+        }
+        seq = Math.min(seq, lastSeq);
+        if (seq < 1) {
+            return;
+        }
+        
+        if (readReceipts.markRead(sessionId, userId, seq)) {
+            ReadReceipt receipt = ReadReceipt.builder()
+                    .sessionId(sessionId)
+                    .userId(userId)
+                    .seq(seq)
+                    .build();
+            messagingTemplate.convertAndSend("/topic/chat/" + sessionId + "/read", receipt);
+        }
+    }
+    
+    private long messageCount(ChatSession session) {
+        return session.getMessageCount() != null ? session.getMessageCount() : 0L;
+    }
+    
+    /** Whether each participant of the session is connected right now. */
+    public List<Presence> getPresence(String sessionId, String userId) {
+        ChatSession session = getSession(sessionId, userId);
+        List<Presence> presence = new ArrayList<>();
+        for (String participantId : new String[] {session.getUserId(), session.getCounselorId()}) {
+            if (participantId != null) {
+                presence.add(Presence.builder()
+                        .userId(participantId)
+                        .online(presenceTracker.isOnline(participantId))
+                        .build());
+            }
+        }
+        return presence;
     }
     
-    public List<ChatSession> getUserSessions(String userId) {
-        return chatSessionRepository.findByUserIdOrderByCreatedAtDesc(userId);
+    // Reads session counters only, never messages
+    public UnreadCount getUnreadCount(String userId) {
+        long total = 0;
+        int sessions = 0;
+        for (ChatSession session : chatSessionRepository.findWithUnread(userId)) {
+            long unread = readReceipts.applyPending(session).unreadCount(userId);
+            if (unread > 0) {
+                total += unread;
+                sessions++;
+            }
+        }
+        return UnreadCount.builder()
+                .total(total)
+                .sessions(sessions)
+                .build();
     }
     
     public ChatSession endSession(String sessionId, String userId, Integer rating, String feedback) {
+        Optional<ChatSession> ended = chatSessionRepository.endSession(sessionId, userId, rating, feedback);
+        if (ended.isPresent()) {
+            ChatSession session = ended.get();
+            endedSessions.announce(sessionId);
+            if (session.getCounselorId() != null) {
+                counselorScheduler.release(session.getCounselorId());
+            } else {
+                counselorScheduler.cancel(sessionId);
+            }
+            return session;
+        }
+        
         ChatSession session = chatSessionRepository.findById(sessionId)
                 .orElseThrow(() -> new RuntimeException("Session not found"));
-        
-        if (!session.getUserId().equals(userId)) {
+        if (!userId.equals(session.getUserId())) {
             throw new RuntimeException("Unauthorized");
         }
-        
-        session.setStatus(ChatSession.SessionStatus.ENDED);
-        session.setEndedAt(LocalDateTime.now());
-        session.setRating(rating);
-        session.setFeedback(feedback);
-        
-        return chatSessionRepository.save(session);
+        return session; // already ended
     }
     
-    private String findAvailableCounselor() {
-        // Simplified counselor assignment
-        // In production, implement proper matching algorithm
-        List<com.mentalhealth.model.User> counselors = userRepository
-                .findByRolesContaining(com.mentalhealth.model.User.Role.ROLE_COUNSELOR);
+    /**
+     * Ends those of the sessions that are still active with no message since {@code idleSince}
+     * and tells both participants, with a system message in the chat and the ended session on
+     * its status topic. Returns how many were ended. Those not ended are checked against the
+     * database, in case another node ended them meanwhile.
+     */
+    public int endIdleSessions(Collection<String> sessionIds, LocalDateTime idleSince) {
+        List<ChatSession> ended = chatSessionRepository.endIdleSessions(sessionIds, idleSince);
+        for (ChatSession session : ended) {
+            endedSessions.announce(session.getId());
+            if (session.getCounselorId() != null) {
+                counselorScheduler.release(session.getCounselorId());
+            }
+            
+            ChatMessage notice = ChatMessage.builder()
+                    .sessionId(session.getId())
+                    .senderRole("SYSTEM")
+                    .content("This session was closed after a period of inactivity.")
+                    .type(ChatMessage.MessageType.SYSTEM)
+                    .timestamp(session.getEndedAt()) // still taken by the ended session
+                    .build();
+            try {
+                messageStore.append(notice);
+            } catch (RuntimeException ex) {
+                logger.warn("Could not store the idle notice for session {}: {}", session.getId(), ex.getMessage());
+            }
+            messagingTemplate.convertAndSend("/topic/chat/" + session.getId(), notice);
+            messagingTemplate.convertAndSend("/topic/chat/" + session.getId() + "/status", session);
+        }
         
-        if (counselors.isEmpty()) {
-            // Return a default counselor ID or throw exception
-            return "default-counselor";
+        if (ended.size() < sessionIds.size()) {
+            Set<String> endedIds = ended.stream().map(ChatSession::getId).collect(Collectors.toSet());
+            activeSessions.removeUnlessOpen(sessionIds.stream().filter(id -> !endedIds.contains(id)).toList());
         }
+        return ended.size();
+    }
+    
+    // A message counts as read once the participant who did not send it has read up to its seq
+    private void setReadFlags(ChatSession session, List<ChatMessage> messages) {
+        Map<String, Long> lastRead = session.getLastReadSeq() != null ? session.getLastReadSeq() : Map.of();
+        long readByUser = lastRead.getOrDefault(session.getUserId(), 0L);
+        long readByCounselor = session.getCounselorId() != null
+                ? lastRead.getOrDefault(session.getCounselorId(), 0L)
+                : 0L;
         
-        return counselors.get(0).getId();
+        for (ChatMessage message : messages) {
+            boolean fromUser = session.getUserId().equals(message.getSenderId());
+            long seq = message.getSeq() != null ? message.getSeq() : 0L;
+            message.setIsRead(seq <= (fromUser ? readByCounselor : readByUser));
+        }
     }
 }
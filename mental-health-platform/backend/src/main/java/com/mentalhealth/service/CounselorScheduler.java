@@ -0,0 +1,240 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.dto.CounselorStatus;
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.model.User;
+import com.mentalhealth.repository.ChatSessionRepository;
+import com.mentalhealth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Assigns chat sessions to the least-loaded available counselor.
+ *
+ * <p>Counselors who can take another session are kept in a set ordered by (active sessions,
+ * id), so picking one and putting it back with its new load is O(log n). When nobody can,
+ * the session is created PENDING and queued; queued sessions are handed out in arrival
+ * order as counselors finish sessions or become available.
+ *
+ * <p>State is in memory and rebuilt from {@code chat_sessions} at startup. Each backend
+ * node balances the sessions it sees, so with several nodes loads are only approximate.
+ */
+@Service
+@RequiredArgsConstructor
+public class CounselorScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(CounselorScheduler.class);
+    
+    private final ChatSessionRepository chatSessionRepository;
+    private final UserRepository userRepository;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ActiveChatSessionRegistry activeSessions;
+    
+    @Value("${app.chat.counselor.max-sessions:5}")
+    private int maxSessionsPerCounselor;
+    
+    // Guards everything below; never held across a database call
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Counselor> counselors = new HashMap<>();
+    private final TreeSet<Counselor> ready = new TreeSet<>(
+            Comparator.comparingInt((Counselor counselor) -> counselor.activeSessions)
+                    .thenComparing(counselor -> counselor.id));
+    private final LinkedHashSet<String> waiting = new LinkedHashSet<>();
+    
+    // After the data initializer, so the seeded counselor is known; sessions created earlier just wait
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        Map<String, Long> loads = chatSessionRepository.countActiveSessionsByCounselor();
+        Iterable<User> staff = userRepository.findByRolesContaining(User.Role.ROLE_COUNSELOR);
+        Iterable<ChatSession> pending = chatSessionRepository
+                .findByStatusOrderByCreatedAtAsc(ChatSession.SessionStatus.PENDING);
+        
+        lock.lock();
+        try {
+            counselors.clear();
+            ready.clear();
+            for (User user : staff) {
+                Counselor counselor = new Counselor(user.getId());
+                counselor.available = isAvailable(user);
+                counselor.activeSessions = loads.getOrDefault(user.getId(), 0L).intValue();
+                counselors.put(counselor.id, counselor);
+                offer(counselor);
+            }
+            // Keeps anything queued while this was loading; the set drops duplicates
+            pending.forEach(session -> waiting.add(session.getId()));
+            logger.info("Counselor scheduler rebuilt: {} counselors, {} waiting sessions",
+                    counselors.size(), waiting.size());
+        } finally {
+            lock.unlock();
+        }
+        assignWaiting();
+    }
+    
+    /**
+     * Takes a slot from the least-loaded available counselor, or empty if every counselor
+     * is unavailable or full. A slot that ends up unused must be given back with {@link #release}.
+     */
+    public Optional<String> acquire() {
+        lock.lock();
+        try {
+            return Optional.ofNullable(acquireLocked());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /** Gives back a counselor's slot when one of their sessions ends. */
+    public void release(String counselorId) {
+        lock.lock();
+        try {
+            releaseLocked(counselorId);
+        } finally {
+            lock.unlock();
+        }
+        assignWaiting();
+    }
+    
+    /** Queues a PENDING session; it is assigned as soon as a counselor is free. */
+    public void enqueue(String sessionId) {
+        lock.lock();
+        try {
+            waiting.add(sessionId);
+        } finally {
+            lock.unlock();
+        }
+        assignWaiting();
+    }
+    
+    /** Drops a PENDING session that ended before anyone took it. */
+    public void cancel(String sessionId) {
+        lock.lock();
+        try {
+            waiting.remove(sessionId);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public CounselorStatus setAvailability(String counselorId, boolean available) {
+        User user = userRepository.findById(counselorId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        user.setAvailableForChat(available);
+        userRepository.save(user);
+        
+        lock.lock();
+        try {
+            Counselor counselor = counselors.computeIfAbsent(counselorId, Counselor::new);
+            ready.remove(counselor);
+            counselor.available = available;
+            offer(counselor);
+        } finally {
+            lock.unlock();
+        }
+        assignWaiting();
+        return getStatus(counselorId);
+    }
+    
+    public CounselorStatus getStatus(String counselorId) {
+        lock.lock();
+        try {
+            Counselor counselor = counselors.get(counselorId);
+            return CounselorStatus.builder()
+                    .counselorId(counselorId)
+                    .available(counselor != null && counselor.available)
+                    .activeSessions(counselor != null ? counselor.activeSessions : 0)
+                    .maxSessions(maxSessionsPerCounselor)
+                    .waitingSessions(waiting.size())
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void assignWaiting() {
+        while (true) {
+            String sessionId;
+            String counselorId;
+            lock.lock();
+            try {
+                if (waiting.isEmpty() || ready.isEmpty()) {
+                    return;
+                }
+                Iterator<String> oldest = waiting.iterator();
+                sessionId = oldest.next();
+                oldest.remove();
+                counselorId = acquireLocked();
+            } finally {
+                lock.unlock();
+            }
+            
+            Optional<ChatSession> assigned = chatSessionRepository.assignCounselor(sessionId, counselorId);
+            if (assigned.isPresent()) {
+                activeSessions.refresh(assigned.get());
+                messagingTemplate.convertAndSend("/topic/chat/" + sessionId + "/status", assigned.get());
+            } else {
+                // Ended while it waited
+                lock.lock();
+                try {
+                    releaseLocked(counselorId);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+    
+    private String acquireLocked() {
+        Counselor counselor = ready.pollFirst();
+        if (counselor == null) {
+            return null;
+        }
+        counselor.activeSessions++;
+        offer(counselor);
+        return counselor.id;
+    }
+    
+    private void releaseLocked(String counselorId) {
+        Counselor counselor = counselors.get(counselorId);
+        if (counselor == null) {
+            return;
+        }
+        ready.remove(counselor);
+        counselor.activeSessions = Math.max(0, counselor.activeSessions - 1);
+        offer(counselor);
+    }
+    
+    // Callers remove the counselor from the set before changing the fields it is ordered by
+    private void offer(Counselor counselor) {
+        if (counselor.available && counselor.activeSessions < maxSessionsPerCounselor) {
+            ready.add(counselor);
+        }
+    }
+    
+    private static boolean isAvailable(User user) {
+        return !Boolean.FALSE.equals(user.getAvailableForChat()) && !Boolean.FALSE.equals(user.getActive());
+    }
+    
+    private static final class Counselor {
+        private final String id;
+        private int activeSessions;
+        private boolean available = true;
+        
+        Counselor(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.config.BrokerBridge;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Takes an ended chat session out of the {@link ActiveChatSessionRegistry} of every node, not
+ * just the one that ended it, so no node keeps accepting messages into it.
+ *
+ * <p>The session id goes to {@link #TOPIC}, which clients cannot subscribe to. In bridge mode
+ * other nodes get it through the {@link BrokerBridge}, in relay mode through a subscription on
+ * the relay's system connection; with the simple broker there are no other nodes.
+ */
+@Component
+public class EndedChatSessions implements MessageHandler, SmartInitializingSingleton {
+    public static final String TOPIC = "/topic/chat-sessions/ended";
+    
+    private final ActiveChatSessionRegistry activeSessions;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectProvider<BrokerBridge> brokerBridge;
+    private final ObjectProvider<StompBrokerRelayMessageHandler> brokerRelay;
+    
+    public EndedChatSessions(ActiveChatSessionRegistry activeSessions,
+                             SimpMessagingTemplate messagingTemplate,
+                             ObjectProvider<BrokerBridge> brokerBridge,
+                             ObjectProvider<StompBrokerRelayMessageHandler> brokerRelay) {
+        this.activeSessions = activeSessions;
+        this.messagingTemplate = messagingTemplate;
+        this.brokerBridge = brokerBridge;
+        this.brokerRelay = brokerRelay;
+    }
+    
+    // Before the relay starts, so its system connection subscribes on first connect
+    @Override
+    public void afterSingletonsInstantiated() {
+        brokerBridge.ifAvailable(bridge -> bridge.subscribe(TOPIC, this));
+        brokerRelay.ifAvailable(relay -> {
+            Map<String, MessageHandler> subscriptions = new HashMap<>(relay.getSystemSubscriptions());
+            subscriptions.put(TOPIC, this);
+            relay.setSystemSubscriptions(subscriptions);
+        });
+    }
+    
+    /** Removes the session here and tells the other nodes to do the same. */
+    public void announce(String sessionId) {
+        activeSessions.remove(sessionId);
+        messagingTemplate.convertAndSend(TOPIC, sessionId);
+    }
+    
+    // Another node ended a session
+    @Override
+    public void handleMessage(Message<?> message) {
+        if (message.getPayload() instanceof byte[] payload) {
+            activeSessions.remove(new String(payload, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.mentalhealth.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel: a deadline lands in slot {@code tick % slots}, so scheduling is O(1)
+ * and each tick only looks at the entries in one slot, however many are scheduled. Deadlines
+ * more than one turn ahead wait in their slot until the wheel comes round to them.
+ *
+ * <p>Any thread may schedule; new entries go through a queue and are placed in their slot on
+ * the next {@link #advance}. Only one thread at a time may call {@code advance}. Entries
+ * cannot be cancelled: whoever handles an expired key checks whether it still applies.
+ */
+public final class HashedTimerWheel<K> {
+    private final long tickMillis;
+    private final List<Entry<K>>[] wheel;
+    private final int mask;
+    private final Queue<Entry<K>> incoming = new ConcurrentLinkedQueue<>();
+    
+    private long currentTick = -1; // the last tick processed
+    
+    @SuppressWarnings("unchecked")
+    public HashedTimerWheel(long tickMillis, int slots) {
+        if (tickMillis <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("Tick and number of slots must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1; // a power of two, so a slot is tick & mask
+        this.tickMillis = tickMillis;
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+    }
+    
+    public void schedule(K key, long deadlineMillis) {
+        incoming.add(new Entry<>(key, Math.floorDiv(deadlineMillis, tickMillis)));
+    }
+    
+    /** Processes every tick up to {@code nowMillis} and returns the keys whose deadline has passed. */
+    public List<K> advance(long nowMillis) {
+        long nowTick = Math.floorDiv(nowMillis, tickMillis);
+        if (currentTick < 0) {
+            currentTick = nowTick - 1;
+        }
+        
+        List<K> expired = new ArrayList<>();
+        for (Entry<K> entry; (entry = incoming.poll()) != null; ) {
+            if (entry.deadlineTick() <= currentTick) {
+                expired.add(entry.key()); // already due, its slot has gone by
+            } else {
+                wheel[(int) (entry.deadlineTick() & mask)].add(entry);
+            }
+        }
+        
+        // After a long pause one turn covers every slot; later ticks would only revisit them
+        long lastTick = Math.min(nowTick, currentTick + wheel.length);
+        for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+            wheel[(int) (tick & mask)].removeIf(entry -> {
+                boolean due = entry.deadlineTick() <= nowTick;
+                if (due) {
+                    expired.add(entry.key());
+                }
+                return due;
+            });
+        }
+        currentTick = nowTick;
+        return expired;
+    }
+    
+    private record Entry<K>(K key, long deadlineTick) {
+    }
+}
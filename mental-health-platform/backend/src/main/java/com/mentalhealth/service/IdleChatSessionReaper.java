@@ -0,0 +1,67 @@
+package com.mentalhealth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ends active chat sessions nobody has written in for {@code app.chat.idle.timeout}, so a
+ * user who walked away gets a fresh session next time and their counselor's slot is freed.
+ * Every tick it takes the sessions that came due on the registry's timer wheel and ends them
+ * {@code batch-size} at a time; the write re-checks {@code lastMessageAt}, so a session that
+ * saw a message on another node stays open.
+ */
+@Component
+public class IdleChatSessionReaper {
+    private static final Logger logger = LoggerFactory.getLogger(IdleChatSessionReaper.class);
+    
+    private final ActiveChatSessionRegistry activeSessions;
+    private final ChatService chatService;
+    private final Duration idleTimeout;
+    private final int batchSize;
+    private final Counter endedSessions;
+    
+    public IdleChatSessionReaper(ActiveChatSessionRegistry activeSessions,
+                                 ChatService chatService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.chat.idle.timeout:30m}") Duration idleTimeout,
+                                 @Value("${app.chat.idle.batch-size:100}") int batchSize) {
+        this.activeSessions = activeSessions;
+        this.chatService = chatService;
+        this.idleTimeout = idleTimeout;
+        this.batchSize = batchSize;
+        this.endedSessions = Counter.builder("chat.sessions.idle.ended")
+                .description("Active chat sessions ended for inactivity")
+                .register(meterRegistry);
+    }
+    
+    @Scheduled(fixedDelayString = "${app.chat.idle.tick:1000}")
+    public void endIdleSessions() {
+        List<String> idle = activeSessions.pollIdle(System.currentTimeMillis()).stream()
+                .map(ActiveChatSessionRegistry.ActiveChatSession::id)
+                .toList();
+        if (idle.isEmpty()) {
+            return;
+        }
+        
+        LocalDateTime idleSince = LocalDateTime.now().minus(idleTimeout);
+        for (int from = 0; from < idle.size(); from += batchSize) {
+            List<String> batch = idle.subList(from, Math.min(from + batchSize, idle.size()));
+            try {
+                endedSessions.increment(chatService.endIdleSessions(batch, idleSince));
+            } catch (DataAccessException ex) {
+                // They are still registered, and come due again one timeout later
+                logger.warn("Ending {} idle chat sessions failed: {}", batch.size(), ex.getMessage());
+            }
+        }
+    }
+}
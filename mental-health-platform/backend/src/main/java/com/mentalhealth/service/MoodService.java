@@ -79,7 +79,7 @@ public class MoodService {
         return analytics;
     }
     
-    private String calculateTrend(List<MoodEntry> entries) {
+    String calculateTrend(List<MoodEntry> entries) {
         if (entries.size() < 2) return "neutral";
         
         List<MoodEntry> sortedEntries = entries.stream()
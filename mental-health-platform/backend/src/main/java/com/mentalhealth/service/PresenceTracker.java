@@ -0,0 +1,158 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.dto.Presence;
+import com.mentalhealth.security.UserPrincipal;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Who is online, from STOMP connections alone: a user is online while at least one of their
+ * connections is open. Changes go to {@code /topic/presence/{userId}}, which only the user and
+ * the people they share an open chat session with may subscribe to. Nothing is stored, so
+ * presence starts empty on every node.
+ *
+ * <p>Every inbound frame, heartbeats included, refreshes its connection. A connection that has
+ * sent nothing for {@code timeout} is dropped by the sweep even if no disconnect event came,
+ * e.g. when a client's network went away without closing the socket; if it turns out to be
+ * alive after all, its next frame brings it back.
+ */
+@Component
+public class PresenceTracker implements ChannelInterceptor {
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long timeoutNanos;
+    
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    // User id -> open connections; a user is only here while online
+    private final Map<String, Integer> online = new ConcurrentHashMap<>();
+    
+    // Lazy: this is a channel interceptor, created while the broker channels it would send to are still being set up
+    public PresenceTracker(@Lazy SimpMessagingTemplate messagingTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.websocket.presence.timeout:30s}") Duration timeout) {
+        this.messagingTemplate = messagingTemplate;
+        this.timeoutNanos = timeout.toNanos();
+        Gauge.builder("websocket.presence.online", online, Map::size)
+                .description("Users with at least one open WebSocket connection")
+                .register(meterRegistry);
+    }
+    
+    public boolean isOnline(String userId) {
+        return userId != null && online.containsKey(userId);
+    }
+    
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        String connectionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (connectionId == null) {
+            return message;
+        }
+        
+        Connection connection = connections.get(connectionId);
+        if (connection != null) {
+            connection.lastSeen = System.nanoTime();
+        } else if (isTraffic(SimpMessageHeaderAccessor.getMessageType(headers))) {
+            // Swept as silent, but still talking
+            String userId = userId(SimpMessageHeaderAccessor.getUser(headers));
+            if (userId != null) {
+                open(connectionId, userId);
+            }
+        }
+        return message;
+    }
+    
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        String connectionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        String userId = userId(event.getUser());
+        if (connectionId != null && userId != null) {
+            open(connectionId, userId);
+        }
+    }
+    
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        close(event.getSessionId());
+    }
+    
+    @Scheduled(fixedDelayString = "${app.websocket.presence.sweep-interval:10000}")
+    public void expireSilentConnections() {
+        long now = System.nanoTime();
+        connections.forEach((connectionId, connection) -> {
+            if (now - connection.lastSeen > timeoutNanos) {
+                close(connectionId);
+            }
+        });
+    }
+    
+    private void open(String connectionId, String userId) {
+        if (connections.putIfAbsent(connectionId, new Connection(userId)) != null) {
+            return;
+        }
+        if (online.merge(userId, 1, Integer::sum) == 1) {
+            publish(userId, true);
+        }
+    }
+    
+    private void close(String connectionId) {
+        Connection connection = connections.remove(connectionId);
+        if (connection == null) {
+            return;
+        }
+        Integer remaining = online.computeIfPresent(connection.userId, (id, count) -> count > 1 ? count - 1 : null);
+        if (remaining == null) {
+            publish(connection.userId, false);
+        }
+    }
+    
+    private void publish(String userId, boolean isOnline) {
+        Presence presence = Presence.builder()
+                .userId(userId)
+                .online(isOnline)
+                .build();
+        messagingTemplate.convertAndSend("/topic/presence/" + userId, presence);
+    }
+    
+    private static boolean isTraffic(SimpMessageType type) {
+        return type == SimpMessageType.MESSAGE
+                || type == SimpMessageType.SUBSCRIBE
+                || type == SimpMessageType.HEARTBEAT;
+    }
+    
+    private static String userId(Principal user) {
+        if (user instanceof Authentication authentication
+                && authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal.getId();
+        }
+        return null;
+    }
+    
+    private static final class Connection {
+        private final String userId;
+        private volatile long lastSeen = System.nanoTime();
+        
+        Connection(String userId) {
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.model.ChatSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Read markers waiting to be written. A receipt only raises the participant's in-memory
+ * high-water mark, so a burst of receipts (one per message scrolled past) becomes a single
+ * {@code $max} on {@code lastReadSeq.<participant>} at the next flush, every
+ * {@code flush-interval}, as one unordered bulk write for all sessions.
+ *
+ * <p>Markers stay pending until their write succeeded, and sessions loaded in the meantime
+ * are overlaid with them, so a participant never sees their own receipt undone. A failed
+ * flush is retried with whatever is pending at the next interval.
+ */
+@Component
+public class ReadReceiptBuffer implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ReadReceiptBuffer.class);
+    
+    private final MongoTemplate mongoTemplate;
+    private final Map<ReadMarker, Long> pending = new ConcurrentHashMap<>();
+    
+    private final Counter received;
+    private final Counter coalesced;
+    private final DistributionSummary flushSizes;
+    
+    public ReadReceiptBuffer(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.received = Counter.builder("chat.read.receipts")
+                .tag("result", "received")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("chat.read.receipts")
+                .description("Receipts merged into a pending marker instead of written on their own")
+                .tag("result", "coalesced")
+                .register(meterRegistry);
+        this.flushSizes = DistributionSummary.builder("chat.read.flush.size")
+                .description("Read markers written per flush")
+                .register(meterRegistry);
+    }
+    
+    /** Raises the participant's marker to {@code seq}; false if it already was at or above it. */
+    public boolean markRead(String sessionId, String participantId, long seq) {
+        received.increment();
+        ReadMarker marker = new ReadMarker(sessionId, participantId);
+        Long previous = pending.get(marker);
+        Long merged = pending.merge(marker, seq, Math::max);
+        if (previous != null) {
+            coalesced.increment();
+        }
+        return merged == seq && (previous == null || previous < seq);
+    }
+    
+    /** Raises the session's read markers to the ones still waiting to be written. */
+    public ChatSession applyPending(ChatSession session) {
+        if (pending.isEmpty()) {
+            return session;
+        }
+        for (String participantId : new String[] {session.getUserId(), session.getCounselorId()}) {
+            Long seq = participantId != null ? pending.get(new ReadMarker(session.getId(), participantId)) : null;
+            if (seq != null) {
+                if (session.getLastReadSeq() == null) {
+                    session.setLastReadSeq(new HashMap<>());
+                }
+                session.getLastReadSeq().merge(participantId, seq, Math::max);
+            }
+        }
+        return session;
+    }
+    
+    @Scheduled(fixedDelayString = "${app.chat.read-receipts.flush-interval:250}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<ReadMarker, Long> batch = new HashMap<>(pending);
+        
+        BulkOperations updates = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatSession.class);
+        batch.forEach((marker, seq) -> updates.updateOne(
+                new Query(where("_id").is(marker.sessionId())),
+                new Update().max("lastReadSeq." + marker.participantId(), seq)));
+        try {
+            updates.execute();
+        } catch (DataAccessException ex) {
+            logger.warn("Writing {} read markers failed, retrying at the next flush: {}", batch.size(), ex.getMessage());
+            return;
+        }
+        flushSizes.record(batch.size());
+        
+        // A marker raised again while this flush ran stays pending for the next one
+        batch.forEach(pending::remove);
+    }
+    
+    @Override
+    public void destroy() {
+        flush();
+    }
+    
+    private record ReadMarker(String sessionId, String participantId) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.repository.ChatMessageRepository;
+import com.mentalhealth.repository.ChatSessionRepository;
+import com.mentalhealth.security.MessageCipher;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.OptionalLong;
+
+// Per message, before it is broadcast: one write on the session (seq + summary), one moving the
+// sender's read position (skipped for system messages) and one insert
+@Component
+@ConditionalOnProperty(name = "app.chat.persistence.mode", havingValue = "sync", matchIfMissing = true)
+@RequiredArgsConstructor
+public class SyncChatMessageStore implements ChatMessageStore {
+    private final ChatSessionRepository chatSessionRepository;
+    private final ActiveChatSessionRegistry activeSessions;
+    private final ChatMessageRepository chatMessageRepository;
+    private final MessageCipher messageCipher;
+    
+    @Override
+    public ChatMessage append(ChatMessage message) {
+        OptionalLong seq = chatSessionRepository
+                .appendMessage(message.getSessionId(), message.getSenderId(),
+                        messageCipher.encrypt(ChatMessagePreview.of(message.getContent()), message.getSessionId()),
+                        message.getTimestamp());
+        if (seq.isEmpty()) {
+            // Ended through a node this one has not heard from yet
+            activeSessions.remove(message.getSessionId());
+            throw new RuntimeException("Session not found or ended");
+        }
+        message.setSeq(seq.getAsLong());
+        return chatMessageRepository.insert(message);
+    }
+}
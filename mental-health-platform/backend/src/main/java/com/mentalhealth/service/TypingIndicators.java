@@ -0,0 +1,110 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.dto.TypingIndicator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typing indicators, relayed straight to {@code /topic/chat/{sessionId}/typing}. They never
+ * touch ChatService or Mongo.
+ *
+ * <p>Per connection and chat session, a typing start is relayed at most once per
+ * {@code min-interval}; a stop is relayed only after a start, so a flood of either costs the
+ * other side at most two frames per interval. When a connection closes while typing, a stop
+ * is relayed for it. The participant check only looks at the sessions registered on this node,
+ * never at Mongo: a client subscribes to the chat topic before it types, and that registers
+ * the session here. Refused frames leave nothing behind, so ids of sessions that do not exist
+ * cost neither a read nor memory.
+ */
+@Component
+public class TypingIndicators {
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ActiveChatSessionRegistry activeSessions;
+    private final long minIntervalNanos;
+    
+    // Connection id -> chat session id -> what was last relayed for it
+    private final Map<String, Map<String, Relayed>> relayed = new ConcurrentHashMap<>();
+    
+    private final Counter relayedEvents;
+    private final Counter droppedEvents;
+    
+    public TypingIndicators(SimpMessagingTemplate messagingTemplate,
+                            ActiveChatSessionRegistry activeSessions,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.websocket.typing.min-interval:1s}") Duration minInterval) {
+        this.messagingTemplate = messagingTemplate;
+        this.activeSessions = activeSessions;
+        this.minIntervalNanos = minInterval.toNanos();
+        this.relayedEvents = Counter.builder("websocket.typing.events")
+                .tag("result", "relayed")
+                .register(meterRegistry);
+        this.droppedEvents = Counter.builder("websocket.typing.events")
+                .description("Typing events not relayed because of the rate limit")
+                .tag("result", "dropped")
+                .register(meterRegistry);
+    }
+    
+    public void update(String sessionId, String userId, String connectionId, boolean typing) {
+        boolean participant = activeSessions.findRegistered(sessionId)
+                .map(session -> session.hasParticipant(userId))
+                .orElse(false);
+        if (!participant) {
+            throw new AccessDeniedException("Not a participant in an open chat session");
+        }
+        
+        long now = System.nanoTime();
+        Map<String, Relayed> connection = relayed.computeIfAbsent(connectionId, id -> new ConcurrentHashMap<>());
+        boolean[] relay = new boolean[1];
+        connection.compute(sessionId, (id, last) -> {
+            relay[0] = relays(last, typing, now);
+            return relay[0] ? new Relayed(userId, typing, now) : last;
+        });
+        
+        if (relay[0]) {
+            relayedEvents.increment();
+            publish(sessionId, userId, typing);
+        } else {
+            droppedEvents.increment();
+        }
+    }
+    
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, Relayed> sessions = relayed.remove(event.getSessionId());
+        if (sessions != null) {
+            sessions.forEach((sessionId, last) -> {
+                if (last.typing()) {
+                    publish(sessionId, last.userId(), false);
+                }
+            });
+        }
+    }
+    
+    private boolean relays(Relayed last, boolean typing, long now) {
+        return typing
+                ? last == null || now - last.at() >= minIntervalNanos
+                : last != null && last.typing();
+    }
+    
+    private void publish(String sessionId, String userId, boolean typing) {
+        TypingIndicator indicator = TypingIndicator.builder()
+                .sessionId(sessionId)
+                .userId(userId)
+                .typing(typing)
+                .build();
+        messagingTemplate.convertAndSend("/topic/chat/" + sessionId + "/typing", indicator);
+    }
+    
+    private record Relayed(String userId, boolean typing, long at) {
+    }
+}
@@ -0,0 +1,507 @@
+package com.mentalhealth.service;
+
+import com.mentalhealth.model.ChatMessage;
+import com.mentalhealth.model.ChatSession;
+import com.mentalhealth.repository.ChatSessionRepository;
+import com.mentalhealth.repository.ChatSessionRepositoryCustom;
+import com.mentalhealth.security.MessageCipher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Write-behind persistence: a message gets its seq from an in-memory per-session counter
+ * and is broadcast straight away, while one background thread bulk-inserts queued messages
+ * once {@code batch-size} are waiting or the oldest has waited {@code flush-interval}.
+ *
+ * <p>Capacity is a semaphore taken before a seq is handed out, so a sender turned away after
+ * {@code enqueue-timeout} leaves no gap in the sequence. Permits come back only once a batch
+ * is written, which is what pushes back on senders while Mongo is slow or down. The queue
+ * is drained before the bean is destroyed on shutdown.
+ *
+ * <p>While Mongo is failing a batch is retried until it goes through. A message Mongo rejects
+ * on its own, or that cannot be mapped or encrypted, is moved to {@code chat_messages_failed}
+ * so it does not hold up the messages behind it. Its seq still counts towards the session's
+ * messageCount, so it is never handed out twice.
+ *
+ * <p>Counters are per node: all messages of a session must be sequenced by the same node,
+ * so run this mode on a single node or with session affinity.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.persistence.mode", havingValue = "write-behind")
+public class WriteBehindChatMessageStore implements ChatMessageStore, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindChatMessageStore.class);
+    
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 5000;
+    private static final String FAILED_COLLECTION = "chat_messages_failed";
+    private static final long SEQUENCE_SWEEP_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long SEQUENCE_IDLE_NANOS = TimeUnit.MINUTES.toNanos(30);
+    
+    private final MongoTemplate mongoTemplate;
+    private final ChatSessionRepository chatSessionRepository;
+    private final MessageCipher messageCipher;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long enqueueTimeoutMillis;
+    private final long shutdownTimeoutMillis;
+    private final long sequenceCacheSize;
+    
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Semaphore capacity;
+    private final Map<String, SessionSequence> sequences = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean accepting = true;
+    private long nextSequenceSweep = System.nanoTime(); // flusher thread only
+    
+    private final Timer flushTimer;
+    private final Timer lagTimer;
+    private final DistributionSummary batchSizes;
+    private final Counter rejected;
+    private final Counter failedFlushes;
+    private final Counter setAside;
+    
+    public WriteBehindChatMessageStore(MongoTemplate mongoTemplate,
+                                       ChatSessionRepository chatSessionRepository,
+                                       MessageCipher messageCipher,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${app.chat.persistence.queue-capacity:10000}") int queueCapacity,
+                                       @Value("${app.chat.persistence.batch-size:500}") int batchSize,
+                                       @Value("${app.chat.persistence.flush-interval:50ms}") Duration flushInterval,
+                                       @Value("${app.chat.persistence.enqueue-timeout:500ms}") Duration enqueueTimeout,
+                                       @Value("${app.chat.persistence.shutdown-timeout:30s}") Duration shutdownTimeout,
+                                       @Value("${app.chat.persistence.sequence-cache-size:100000}") long sequenceCacheSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.chatSessionRepository = chatSessionRepository;
+        this.messageCipher = messageCipher;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.enqueueTimeoutMillis = enqueueTimeout.toMillis();
+        this.shutdownTimeoutMillis = shutdownTimeout.toMillis();
+        this.sequenceCacheSize = sequenceCacheSize;
+        this.capacity = new Semaphore(queueCapacity);
+        
+        this.flusher = new Thread(this::runFlusher, "chat-write-behind");
+        this.flusher.setDaemon(true);
+        
+        this.flushTimer = Timer.builder("chat.persistence.flush")
+                .description("Time to bulk-write one batch of chat messages")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("chat.persistence.lag")
+                .description("Time from enqueue until the batch holding the message was written")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("chat.persistence.batch.size")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.persistence.rejected")
+                .register(meterRegistry);
+        this.failedFlushes = Counter.builder("chat.persistence.flush.failed")
+                .register(meterRegistry);
+        this.setAside = Counter.builder("chat.persistence.set.aside")
+                .description("Messages that could not be written to chat_messages")
+                .register(meterRegistry);
+        Gauge.builder("chat.persistence.queue.depth", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("chat.persistence.queue.oldest", this, WriteBehindChatMessageStore::oldestPendingSeconds)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+    
+    @PostConstruct
+    void start() {
+        flusher.start();
+    }
+    
+    @Override
+    public ChatMessage append(ChatMessage message) {
+        if (!accepting) {
+            throw new RuntimeException("Chat is shutting down");
+        }
+        SessionSequence sequence = sequenceFor(message.getSessionId());
+        
+        try {
+            if (!capacity.tryAcquire(enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new RuntimeException("Chat is busy, please try again");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing chat message");
+        }
+        
+        // Assigned up front so a retried insert is recognised as the same message
+        if (message.getId() == null) {
+            message.setId(new ObjectId().toHexString());
+        }
+        while (!sequence.next(message)) {
+            sequence = sequenceFor(message.getSessionId()); // retired in between; it was fully flushed
+        }
+        queue.add(new Pending(message, System.nanoTime()));
+        return message;
+    }
+    
+    private SessionSequence sequenceFor(String sessionId) {
+        SessionSequence sequence = sequences.get(sessionId);
+        if (sequence != null) {
+            return sequence;
+        }
+        
+        // Loaded outside any lock; if two threads race, the first value stored wins. A counter is
+        // only dropped once nothing of its session is queued, so messageCount is up to date here
+        Long persisted = chatSessionRepository.findById(sessionId)
+                .map(ChatSession::getMessageCount)
+                .orElseThrow(() -> new RuntimeException("Session not found"));
+        SessionSequence loaded = new SessionSequence(persisted != null ? persisted : 0L);
+        SessionSequence existing = sequences.putIfAbsent(sessionId, loaded);
+        return existing != null ? existing : loaded;
+    }
+    
+    // Counters with queued messages stay; the others go after 30 idle minutes, or at once above the cap
+    private void retireSequences() {
+        long now = System.nanoTime();
+        if (now - nextSequenceSweep < 0) {
+            return;
+        }
+        nextSequenceSweep = now + SEQUENCE_SWEEP_NANOS;
+        
+        boolean overCapacity = sequences.size() > sequenceCacheSize;
+        sequences.values().removeIf(sequence -> sequence.retireIfIdle(now, overCapacity));
+    }
+    
+    private void runFlusher() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                retireSequences();
+                Pending first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                
+                long deadline = first.enqueuedAt() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !accepting) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                
+                writeWithRetry(batch);
+                settle(batch);
+            } catch (InterruptedException ex) {
+                // Only interrupted once the shutdown timeout is over; destroy() writes what is left
+                queue.addAll(batch);
+                return;
+            } finally {
+                capacity.release(batch.size());
+                batch.clear();
+            }
+        }
+    }
+    
+    private void writeWithRetry(List<Pending> batch) throws InterruptedException {
+        long backoff = 100;
+        boolean oneByOne = false;
+        while (true) {
+            try {
+                write(batch, oneByOne);
+                return;
+            } catch (DataAccessException ex) {
+                // Mongo is failing; senders are held back by the capacity semaphore meanwhile
+                failedFlushes.increment();
+                logger.warn("Writing {} chat messages failed, retrying in {} ms: {}",
+                        batch.size(), backoff, ex.getMessage());
+            } catch (RuntimeException ex) {
+                failedFlushes.increment();
+                if (!oneByOne) {
+                    // Not Mongo but a message that cannot be written, e.g. a mapping or cipher error
+                    logger.warn("Writing {} chat messages failed, writing them one at a time: {}", batch.size(), ex.toString());
+                    oneByOne = true;
+                    continue;
+                }
+                logger.warn("Writing {} chat messages failed, retrying in {} ms", batch.size(), backoff, ex);
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+        }
+    }
+    
+    private void write(List<Pending> batch, boolean oneByOne) {
+        long start = System.nanoTime();
+        
+        List<Pending> stored = oneByOne ? insertEach(batch) : insertAll(batch);
+        if (!stored.isEmpty()) {
+            updateSessions(stored);
+        }
+        if (stored.size() < batch.size()) {
+            Set<Pending> written = Collections.newSetFromMap(new IdentityHashMap<>());
+            written.addAll(stored);
+            skipSeqs(batch.stream().filter(pending -> !written.contains(pending)).toList());
+        }
+        
+        long now = System.nanoTime();
+        flushTimer.record(now - start, TimeUnit.NANOSECONDS);
+        lagTimer.record(now - batch.get(0).enqueuedAt(), TimeUnit.NANOSECONDS);
+        batchSizes.record(batch.size());
+    }
+    
+    private List<Pending> insertAll(List<Pending> batch) {
+        BulkOperations inserts = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessage.class);
+        for (Pending pending : batch) {
+            inserts.insert(pending.message());
+        }
+        try {
+            inserts.execute();
+            return batch;
+        } catch (BulkOperationException ex) {
+            if (ex.getErrors().isEmpty()) {
+                throw ex;
+            }
+            
+            // A duplicate is only ours if an earlier attempt of this batch stored the same message
+            Set<String> alreadyStored = storedIds(ex.getErrors().stream()
+                    .filter(error -> error.getCode() == DUPLICATE_KEY)
+                    .map(error -> batch.get(error.getIndex()).message().getId())
+                    .toList());
+            Set<Integer> failed = new HashSet<>();
+            ex.getErrors().forEach(error -> {
+                Pending pending = batch.get(error.getIndex());
+                if (!alreadyStored.contains(pending.message().getId())) {
+                    failed.add(error.getIndex());
+                    setAside(pending, error.getMessage());
+                }
+            });
+            
+            List<Pending> stored = new ArrayList<>(batch.size() - failed.size());
+            for (int i = 0; i < batch.size(); i++) {
+                if (!failed.contains(i)) {
+                    stored.add(batch.get(i));
+                }
+            }
+            return stored;
+        }
+    }
+    
+    // Isolates the message that broke a bulk write; a Mongo failure still fails the whole batch
+    private List<Pending> insertEach(List<Pending> batch) {
+        List<Pending> stored = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            try {
+                mongoTemplate.insert(pending.message());
+                stored.add(pending);
+            } catch (DataIntegrityViolationException ex) {
+                if (ex instanceof DuplicateKeyException && !storedIds(List.of(pending.message().getId())).isEmpty()) {
+                    stored.add(pending);
+                } else {
+                    setAside(pending, ex.getMessage());
+                }
+            } catch (DataAccessException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                setAside(pending, ex.toString());
+            }
+        }
+        return stored;
+    }
+    
+    private Set<String> storedIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        Query query = new Query(where("_id").in(ids));
+        query.fields().include("_id");
+        return mongoTemplate.find(query, ChatMessage.class).stream()
+                .map(ChatMessage::getId)
+                .collect(Collectors.toSet());
+    }
+    
+    private void setAside(Pending pending, String reason) {
+        ChatMessage message = pending.message();
+        setAside.increment();
+        try {
+            mongoTemplate.insert(message, FAILED_COLLECTION);
+            logger.error("Moved chat message {} (session {}, seq {}) to {}: {}",
+                    message.getId(), message.getSessionId(), message.getSeq(), FAILED_COLLECTION, reason);
+        } catch (RuntimeException ex) {
+            logger.error("Dropping chat message {} (session {}, seq {}) that could not be written: {}",
+                    message.getId(), message.getSessionId(), message.getSeq(), reason, ex);
+        }
+    }
+    
+    // Written or set aside: the session's counter may be retired once nothing else is queued
+    private void settle(List<Pending> batch) {
+        for (Pending pending : batch) {
+            SessionSequence sequence = sequences.get(pending.message().getSessionId());
+            if (sequence != null) {
+                sequence.settled();
+            }
+        }
+    }
+    
+    /**
+     * Moves messageCount past messages that were set aside. Their seqs were handed out, and a
+     * counter reloaded after this session's is retired must not hand them out again. Runs after
+     * {@link #updateSessions}, so the summary of a message written in the same batch with a
+     * lower seq is not skipped.
+     */
+    private void skipSeqs(List<Pending> setAside) {
+        Map<String, ChatMessage> newestBySession = new HashMap<>();
+        for (Pending pending : setAside) {
+            ChatMessage message = pending.message();
+            newestBySession.merge(message.getSessionId(), message,
+                    (current, candidate) -> candidate.getSeq() > current.getSeq() ? candidate : current);
+        }
+        
+        BulkOperations sessions = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatSession.class);
+        for (ChatMessage newest : newestBySession.values()) {
+            sessions.updateOne(
+                    new Query(where("_id").is(newest.getSessionId()).and("messageCount").lt(newest.getSeq())
+                            .andOperator(ChatSessionRepositoryCustom.acceptsMessageAt(newest.getTimestamp()))),
+                    new Update().set("messageCount", newest.getSeq()));
+        }
+        sessions.execute();
+    }
+    
+    // Same summary fields the sync path maintains, one bulk update per batch
+    private void updateSessions(List<Pending> batch) {
+        Map<String, ChatMessage> newestBySession = new HashMap<>();
+        Map<String, Map<String, Long>> newestBySender = new HashMap<>();
+        for (Pending pending : batch) {
+            ChatMessage message = pending.message();
+            newestBySession.merge(message.getSessionId(), message,
+                    (current, candidate) -> candidate.getSeq() > current.getSeq() ? candidate : current);
+            if (StringUtils.hasText(message.getSenderId())) {
+                newestBySender.computeIfAbsent(message.getSessionId(), id -> new HashMap<>())
+                        .merge(message.getSenderId(), message.getSeq(), Math::max);
+            }
+        }
+        
+        BulkOperations sessions = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatSession.class);
+        for (ChatMessage newest : newestBySession.values()) {
+            // Conditional, so a batch that happens to be older never overwrites a newer summary, and
+            // a message accepted by a node that had not heard of the session ending never counts
+            sessions.updateOne(
+                    new Query(where("_id").is(newest.getSessionId()).and("messageCount").lt(newest.getSeq())
+                            .andOperator(ChatSessionRepositoryCustom.acceptsMessageAt(newest.getTimestamp()))),
+                    new Update()
+                            .set("messageCount", newest.getSeq())
+                            .set("lastMessagePreview", messageCipher.encrypt(
+                                    ChatMessagePreview.of(newest.getContent()), newest.getSessionId()))
+                            .set("lastMessageAt", newest.getTimestamp()));
+        }
+        newestBySender.forEach((sessionId, senders) -> senders.forEach((senderId, seq) ->
+                sessions.updateOne(
+                        new Query(where("_id").is(sessionId)),
+                        new Update().max("lastReadSeq." + senderId, seq))));
+        sessions.execute();
+    }
+    
+    private double oldestPendingSeconds() {
+        Pending head = queue.peek();
+        return head == null ? 0 : (System.nanoTime() - head.enqueuedAt()) / 1e9;
+    }
+    
+    @Override
+    public void destroy() throws InterruptedException {
+        accepting = false;
+        flusher.join(shutdownTimeoutMillis);
+        if (flusher.isAlive()) {
+            flusher.interrupt();
+            flusher.join(1000);
+        }
+        
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            try {
+                write(rest, false);
+            } catch (DataAccessException ex) {
+                logger.error("Dropping {} chat messages that could not be written on shutdown", rest.size(), ex);
+            } catch (RuntimeException ex) {
+                try {
+                    write(rest, true);
+                } catch (RuntimeException retryEx) {
+                    logger.error("Dropping {} chat messages that could not be written on shutdown", rest.size(), retryEx);
+                }
+            }
+        }
+    }
+    
+    private record Pending(ChatMessage message, long enqueuedAt) {
+    }
+    
+    private static final class SessionSequence {
+        private long last;
+        private int queued;
+        private long lastUsed = System.nanoTime();
+        private boolean retired;
+        
+        SessionSequence(long last) {
+            this.last = last;
+        }
+        
+        synchronized boolean next(ChatMessage message) {
+            if (retired) {
+                return false;
+            }
+            queued++;
+            lastUsed = System.nanoTime();
+            message.setSeq(++last);
+            return true;
+        }
+        
+        synchronized void settled() {
+            queued--;
+        }
+        
+        synchronized boolean retireIfIdle(long now, boolean overCapacity) {
+            retired = queued == 0 && (overCapacity || now - lastUsed > SEQUENCE_IDLE_NANOS);
+            return retired;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.mentalhealth.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SlowConsumerPolicyTest {
+    
+    @Test
+    void setsTomcatSendTimeoutThroughOuterDecorators() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SlowConsumerPolicy policy = new SlowConsumerPolicy(meterRegistry, List.of(),
+                Duration.ofSeconds(1), Duration.ofSeconds(5));
+        CborPayloadCodec payloadCodec = new CborPayloadCodec(meterRegistry);
+        
+        // Same order as WebSocketConfig registers them: the codec ends up outermost
+        WebSocketHandler handler = payloadCodec.decorate(policy.decorate(mock(WebSocketHandler.class)));
+        
+        Map<String, Object> userProperties = new HashMap<>();
+        jakarta.websocket.Session endpoint = mock(jakarta.websocket.Session.class);
+        when(endpoint.getUserProperties()).thenReturn(userProperties);
+        StandardWebSocketSession session = new StandardWebSocketSession(new HttpHeaders(), new HashMap<>(), null, null);
+        session.initializeNativeSession(endpoint);
+        
+        handler.afterConnectionEstablished(session);
+        
+        assertThat(userProperties).containsEntry(SlowConsumerPolicy.BLOCKING_SEND_TIMEOUT, 5000L);
+    }
+}
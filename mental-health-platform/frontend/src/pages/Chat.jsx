@@ -21,10 +21,16 @@ import { useThemeMode } from '../context/ThemeContext';
 const Chat = () => {
   const [session, setSession] = useState(null);
   const [messages, setMessages] = useState([]);
+  const [hasEarlier, setHasEarlier] = useState(false);
   const [inputMessage, setInputMessage] = useState('');
   const [loading, setLoading] = useState(false);
   const [isTyping, setIsTyping] = useState(false);
+  const [counselorOnline, setCounselorOnline] = useState(null);
   const messagesEndRef = useRef(null);
+  const lastSeqRef = useRef(0);
+  const typingSentAtRef = useRef(0);
+  const typingStopTimerRef = useRef(null);
+  const peerTypingTimerRef = useRef(null);
   const { user } = useAuth();
   const { mode } = useThemeMode();
 
@@ -36,9 +42,66 @@ const Chat = () => {
     };
   }, [session]);
 
+  // Follow the counselor's presence once one is assigned
+  const counselorId = session?.counselorId;
+  useEffect(() => {
+    if (!session || !counselorId) return;
+    websocketService.watchPresence(counselorId, (presence) => setCounselorOnline(presence.online));
+    chatAPI
+      .getPresence(session.id)
+      .then((response) => {
+        const counselor = response.data.find((p) => p.userId === counselorId);
+        if (counselor) setCounselorOnline(counselor.online);
+      })
+      .catch(() => {});
+  }, [session?.id, counselorId]);
+
+  // Only scroll when a newer message arrives, not when earlier history is prepended
+  const newestSeq = messages.length > 0 ? messages[messages.length - 1].seq : 0;
   useEffect(() => {
     scrollToBottom();
-  }, [messages]);
+  }, [newestSeq]);
+
+  // Messages can arrive both live and from history requests; keep one copy of each, in seq order
+  const mergeMessages = (current, incoming) => {
+    const bySeq = new Map(current.map((m) => [m.seq, m]));
+    incoming.forEach((m) => bySeq.set(m.seq, m));
+    return [...bySeq.values()].sort((a, b) => a.seq - b.seq);
+  };
+
+  // Highest seq received so far; reconnect catch-up resumes after it
+  const trackSeq = (incoming) => {
+    incoming.forEach((m) => {
+      lastSeqRef.current = Math.max(lastSeqRef.current, m.seq);
+    });
+  };
+
+  const catchUp = async (sessionId) => {
+    try {
+      let hasMore = true;
+      while (hasMore) {
+        const response = await chatAPI.getMessages(sessionId, { after: lastSeqRef.current });
+        const page = response.data;
+        if (page.messages.length === 0) break;
+        trackSeq(page.messages);
+        setMessages((prev) => mergeMessages(prev, page.messages));
+        hasMore = page.hasMore;
+      }
+    } catch (error) {
+      console.error('Error fetching missed messages:', error);
+    }
+  };
+
+  const loadEarlier = async () => {
+    if (!session || messages.length === 0) return;
+    try {
+      const response = await chatAPI.getMessages(session.id, { before: messages[0].seq });
+      setMessages((prev) => mergeMessages(prev, response.data.messages));
+      setHasEarlier(response.data.hasMore);
+    } catch (error) {
+      console.error('Error loading earlier messages:', error);
+    }
+  };
 
   const scrollToBottom = () => {
     messagesEndRef.current?.scrollIntoView({ behavior: 'smooth' });
@@ -49,12 +112,49 @@ const Chat = () => {
     try {
       const response = await chatAPI.createSession();
       const newSession = response.data;
+      const history = (await chatAPI.getMessages(newSession.id)).data;
+      lastSeqRef.current = 0;
+      trackSeq(history.messages);
       setSession(newSession);
-      setMessages(newSession.messages || []);
+      setMessages(history.messages);
+      setHasEarlier(history.hasMore);
+      if (lastSeqRef.current > 0) {
+        chatAPI.markRead(newSession.id, lastSeqRef.current).catch(() => {});
+      }
 
-      websocketService.connect(newSession.id, (message) => {
-        setMessages((prev) => [...prev, message]);
-      });
+      websocketService.connect(
+        newSession.id,
+        (message) => {
+          trackSeq([message]);
+          setMessages((prev) => mergeMessages(prev, [message]));
+          if (message.senderId !== user.id) {
+            websocketService.markRead(newSession.id, message.seq);
+          }
+        },
+        async () => {
+          await catchUp(newSession.id);
+          websocketService.markRead(newSession.id, lastSeqRef.current);
+        },
+        {
+          onSessionUpdate: (updated) => setSession(updated),
+          onReadReceipt: (receipt) => {
+            // The counselor has read our messages up to receipt.seq
+            if (receipt.userId === user.id) return;
+            setMessages((prev) =>
+              prev.map((m) => (m.senderId === user.id && m.seq <= receipt.seq ? { ...m, isRead: true } : m))
+            );
+          },
+          onTyping: (indicator) => {
+            if (indicator.userId === user.id) return;
+            // A start that is not repeated within a few seconds has ended
+            clearTimeout(peerTypingTimerRef.current);
+            setIsTyping(indicator.typing);
+            if (indicator.typing) {
+              peerTypingTimerRef.current = setTimeout(() => setIsTyping(false), 5000);
+            }
+          },
+        }
+      );
     } catch (error) {
       console.error('Error starting session:', error);
     } finally {
@@ -68,6 +168,9 @@ const Chat = () => {
       websocketService.disconnect();
       setSession(null);
       setMessages([]);
+      setIsTyping(false);
+      setCounselorOnline(null);
+      setHasEarlier(false);
     } catch (error) {
       console.error('Error ending session:', error);
     }
@@ -76,16 +179,32 @@ const Chat = () => {
   const sendMessage = () => {
     if (!inputMessage.trim() || !session) return;
 
-    websocketService.sendMessage(
-      session.id,
-      user.id,
-      inputMessage,
-      'USER'
-    );
+    websocketService.sendMessage(session.id, inputMessage);
+    stopTyping();
 
     setInputMessage('');
   };
 
+  // A start every 2s while keys are pressed, a stop after 3s without one or when the message is sent
+  const notifyTyping = () => {
+    if (!session) return;
+    const now = Date.now();
+    if (now - typingSentAtRef.current > 2000) {
+      typingSentAtRef.current = now;
+      websocketService.sendTyping(session.id, true);
+    }
+    clearTimeout(typingStopTimerRef.current);
+    typingStopTimerRef.current = setTimeout(stopTyping, 3000);
+  };
+
+  const stopTyping = () => {
+    clearTimeout(typingStopTimerRef.current);
+    if (session && typingSentAtRef.current > 0) {
+      typingSentAtRef.current = 0;
+      websocketService.sendTyping(session.id, false);
+    }
+  };
+
   const handleKeyPress = (e) => {
     if (e.key === 'Enter' && !e.shiftKey) {
       e.preventDefault();
@@ -235,6 +354,9 @@ const Chat = () => {
     );
   }
 
+  // No counselor was free yet; the session becomes active when one takes it
+  const isWaiting = session.status === 'PENDING';
+
   return (
     <Container maxWidth="md" sx={{ mt: 4, mb: 4 }}>
       <motion.div
@@ -283,17 +405,28 @@ const Chat = () => {
                   Professional Counselor
                 </Typography>
                 <Box sx={{ display: 'flex', alignItems: 'center', gap: 1 }}>
-                  <Brightness1 sx={{ fontSize: 10, color: 'success.light' }} />
-                  <Typography variant="caption">Online • Ready to help</Typography>
+                  <Brightness1
+                    sx={{
+                      fontSize: 10,
+                      color: isWaiting ? 'warning.light' : counselorOnline === false ? 'grey.400' : 'success.light',
+                    }}
+                  />
+                  <Typography variant="caption">
+                    {isWaiting
+                      ? 'Waiting for the next available counselor…'
+                      : counselorOnline === false
+                      ? 'Away • Will reply when back'
+                      : 'Online • Ready to help'}
+                  </Typography>
                 </Box>
               </Box>
             </Box>
             <Box sx={{ display: 'flex', gap: 1 }}>
               <Chip
-                label="Active Session"
+                label={isWaiting ? 'Waiting' : 'Active Session'}
                 size="small"
                 sx={{
-                  bgcolor: 'rgba(76, 175, 80, 0.2)',
+                  bgcolor: isWaiting ? 'rgba(255, 152, 0, 0.2)' : 'rgba(76, 175, 80, 0.2)',
                   color: 'white',
                   fontWeight: 600,
                   border: '1px solid rgba(255, 255, 255, 0.3)',
@@ -325,10 +458,17 @@ const Chat = () => {
                 : 'radial-gradient(circle at 20% 50%, rgba(102, 126, 234, 0.03) 0%, transparent 50%), radial-gradient(circle at 80% 80%, rgba(118, 75, 162, 0.03) 0%, transparent 50%)',
             }}
           >
+            {hasEarlier && (
+              <Box sx={{ textAlign: 'center', mb: 2 }}>
+                <Button size="small" onClick={loadEarlier}>
+                  Load earlier messages
+                </Button>
+              </Box>
+            )}
             <AnimatePresence>
               {messages.map((message, index) => (
                 <motion.div
-                  key={index}
+                  key={message.seq ?? index}
                   initial={{ opacity: 0, y: 10, scale: 0.95 }}
                   animate={{ opacity: 1, y: 0, scale: 1 }}
                   exit={{ opacity: 0, scale: 0.95 }}
@@ -396,6 +536,7 @@ const Chat = () => {
                           }}
                         >
                           {new Date(message.timestamp).toLocaleTimeString()}
+                          {message.senderRole === 'USER' && message.isRead && ' · Read'}
                         </Typography>
                       </Box>
                     </motion.div>
@@ -486,9 +627,15 @@ const Chat = () => {
             <Box sx={{ display: 'flex', gap: 1.5 }}>
               <TextField
                 fullWidth
-                placeholder="Type your message..."
+                placeholder={
+                  session.status === 'ENDED' ? 'This session has ended' : 'Type your message...'
+                }
+                disabled={session.status === 'ENDED'}
                 value={inputMessage}
-                onChange={(e) => setInputMessage(e.target.value)}
+                onChange={(e) => {
+                  setInputMessage(e.target.value);
+                  notifyTyping();
+                }}
                 onKeyPress={handleKeyPress}
                 multiline
                 maxRows={3}
@@ -505,7 +652,7 @@ const Chat = () => {
               <motion.div whileHover={{ scale: 1.05 }} whileTap={{ scale: 0.95 }}>
                 <IconButton
                   onClick={sendMessage}
-                  disabled={!inputMessage.trim()}
+                  disabled={!inputMessage.trim() || session.status === 'ENDED'}
                   sx={{
                     background: 'linear-gradient(135deg, #667eea 0%, #764ba2 100%)',
                     color: 'white',
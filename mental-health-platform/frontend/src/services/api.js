@@ -21,10 +21,61 @@ api.interceptors.request.use(
   (error) => Promise.reject(error)
 );
 
+// Access tokens are short-lived: on 401/403 trade the refresh token for a new pair once,
+// sharing a single in-flight refresh between concurrent requests
+let refreshPromise = null;
+
+const refreshTokens = () => {
+  if (!refreshPromise) {
+    const refreshToken = localStorage.getItem('refreshToken');
+    refreshPromise = axios
+      .post(`${API_URL}/auth/refresh`, { refreshToken })
+      .then((response) => {
+        localStorage.setItem('token', response.data.token);
+        localStorage.setItem('refreshToken', response.data.refreshToken);
+        return response.data.token;
+      })
+      .finally(() => {
+        refreshPromise = null;
+      });
+  }
+  return refreshPromise;
+};
+
+api.interceptors.response.use(
+  (response) => response,
+  async (error) => {
+    const original = error.config;
+    const status = error.response?.status;
+    const isAuthCall = original?.url?.startsWith('/auth/');
+
+    if ((status === 401 || status === 403) && !original._retry && !isAuthCall
+        && localStorage.getItem('refreshToken')) {
+      original._retry = true;
+      try {
+        const token = await refreshTokens();
+        original.headers.Authorization = `Bearer ${token}`;
+        return api(original);
+      } catch (refreshError) {
+        localStorage.removeItem('token');
+        localStorage.removeItem('refreshToken');
+        localStorage.removeItem('user');
+        window.location.href = '/login';
+        return Promise.reject(refreshError);
+      }
+    }
+    return Promise.reject(error);
+  }
+);
+
 // Auth APIs
 export const authAPI = {
   register: (data) => api.post('/auth/register', data),
   login: (data) => api.post('/auth/login', data),
+  refresh: (refreshToken) => api.post('/auth/refresh', { refreshToken }),
+  logout: (refreshToken, token) => api.post('/auth/logout', { refreshToken }, {
+    headers: token ? { Authorization: `Bearer ${token}` } : {},
+  }),
 };
 
 // Mood APIs
@@ -55,7 +106,16 @@ export const exerciseAPI = {
 export const chatAPI = {
   createSession: () => api.post('/chat/session'),
   getSession: (sessionId) => api.get(`/chat/session/${sessionId}`),
+  // params: { limit, before, after } where before/after are message seq numbers
+  getMessages: (sessionId, params) =>
+    api.get(`/chat/session/${sessionId}/messages`, { params }),
   getSessions: () => api.get('/chat/sessions'),
+  // { total, sessions } across all of the user's chats
+  getUnreadCount: () => api.get('/chat/unread'),
+  // [{ userId, online }] for the session's participants
+  getPresence: (sessionId) => api.get(`/chat/session/${sessionId}/presence`),
+  markRead: (sessionId, seq) =>
+    api.post(`/chat/session/${sessionId}/read`, null, { params: { seq } }),
   endSession: (sessionId, rating, feedback) => 
     api.post(`/chat/session/${sessionId}/end`, null, {
       params: { rating, feedback }
@@ -7,12 +7,23 @@ class WebSocketService {
     this.isConnected = false;
   }
 
-  connect(sessionId, onMessageReceived) {
-    const socket = new SockJS('http://localhost:8081/ws');
-    
+  // onConnected runs after every (re)connect, so callers can fetch messages they missed.
+  // Optional handlers:
+  //   onSessionUpdate(session): the session changed, e.g. a counselor took a waiting one
+  //   onReadReceipt({ userId, seq }): a participant has read up to seq
+  //   onTyping({ userId, typing }): a participant started or stopped typing
+  connect(sessionId, onMessageReceived, onConnected, handlers = {}) {
+    const { onSessionUpdate, onReadReceipt, onTyping } = handlers;
     this.client = new Client({
-      webSocketFactory: () => socket,
+      // A fresh SockJS socket per attempt; reusing one closed socket made reconnects fail
+      webSocketFactory: () => new SockJS('http://localhost:8081/ws'),
       reconnectDelay: 5000,
+      // The server authenticates the connection once, on CONNECT; read the token per attempt
+      beforeConnect: () => {
+        this.client.connectHeaders = {
+          Authorization: `Bearer ${localStorage.getItem('token')}`,
+        };
+      },
       heartbeatIncoming: 4000,
       heartbeatOutgoing: 4000,
       debug: (str) => {
@@ -27,6 +38,31 @@ class WebSocketService {
           const chatMessage = JSON.parse(message.body);
           onMessageReceived(chatMessage);
         });
+        
+        if (onSessionUpdate) {
+          this.client.subscribe(`/topic/chat/${sessionId}/status`, (message) => {
+            onSessionUpdate(JSON.parse(message.body));
+          });
+        }
+        
+        if (onReadReceipt) {
+          this.client.subscribe(`/topic/chat/${sessionId}/read`, (message) => {
+            onReadReceipt(JSON.parse(message.body));
+          });
+        }
+        
+        if (onTyping) {
+          this.client.subscribe(`/topic/chat/${sessionId}/typing`, (message) => {
+            onTyping(JSON.parse(message.body));
+          });
+        }
+        
+        this.presenceSubscription = null;
+        this.subscribePresence();
+        
+        if (onConnected) {
+          onConnected();
+        }
       },
       onStompError: (frame) => {
         console.error('Broker reported error: ' + frame.headers['message']);
@@ -37,20 +73,56 @@ class WebSocketService {
     this.client.activate();
   }
 
-  sendMessage(sessionId, senderId, content, senderRole) {
+  // The sender is the user the connection was authenticated as
+  sendMessage(sessionId, content) {
     if (this.client && this.isConnected) {
       this.client.publish({
         destination: `/app/chat/${sessionId}/send`,
-        body: JSON.stringify({
-          senderId,
-          content,
-          senderRole,
-        }),
+        body: JSON.stringify({ content }),
+      });
+    }
+  }
+
+  // Presence of one user, e.g. the counselor; resubscribed after every reconnect
+  watchPresence(userId, onPresence) {
+    this.presenceWatch = { userId, onPresence };
+    this.subscribePresence();
+  }
+
+  subscribePresence() {
+    if (!this.client || !this.isConnected || !this.presenceWatch) return;
+    if (this.presenceSubscription) {
+      this.presenceSubscription.unsubscribe();
+    }
+    const { userId, onPresence } = this.presenceWatch;
+    this.presenceSubscription = this.client.subscribe(`/topic/presence/${userId}`, (message) => {
+      onPresence(JSON.parse(message.body));
+    });
+  }
+
+  // Not stored; the server relays at most one start per second to the other participant
+  sendTyping(sessionId, typing) {
+    if (this.client && this.isConnected) {
+      this.client.publish({
+        destination: `/app/chat/${sessionId}/typing`,
+        body: JSON.stringify({ typing }),
+      });
+    }
+  }
+
+  // Cheap to call per message: the server merges receipts and writes the newest one
+  markRead(sessionId, seq) {
+    if (this.client && this.isConnected) {
+      this.client.publish({
+        destination: `/app/chat/${sessionId}/read`,
+        body: JSON.stringify({ seq }),
       });
     }
   }
 
   disconnect() {
+    this.presenceWatch = null;
+    this.presenceSubscription = null;
     if (this.client) {
       this.client.deactivate();
       this.isConnected = false;